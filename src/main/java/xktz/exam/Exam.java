@@ -2,23 +2,48 @@ package xktz.exam;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.commons.io.input.TeeInputStream;
 import xktz.exam.examine.Examiner;
 import xktz.exam.examine.ExaminerProvider;
 import xktz.exam.environment.Environment;
+import xktz.exam.environment.OutputBuffer;
 import xktz.exam.environment.ProcessExecutionFailedException;
+import xktz.exam.generate.BatchedCaseSource;
+import xktz.exam.generate.BloomFilter;
+import xktz.exam.generate.CaseFraming;
 import xktz.exam.lang.LanguageRuntime;
 import xktz.exam.lang.LanguageRuntimeProvider;
+import xktz.exam.log.EpochLogBuffer;
 import xktz.exam.log.ExamLogger;
 import xktz.exam.log.ExamLoggerProvider;
+import xktz.exam.log.SequencedLogger;
+import xktz.exam.pipeline.Pipeline;
+import xktz.exam.pipeline.PipelineStage;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * Exam exam the code
@@ -33,6 +58,31 @@ public class Exam {
      */
     private static final String CHARSET_BYTE = "byte";
 
+    /**
+     * Key of generator input in generator config
+     */
+    private static final String KEY_GENERATOR_INPUT = "input";
+
+    /**
+     * Key of number of cases generated in one generator run
+     */
+    private static final String KEY_GENERATOR_BATCH = "batch";
+
+    /**
+     * Key of framing splitting the cases of a batch
+     */
+    private static final String KEY_GENERATOR_FRAMING = "framing";
+
+    /**
+     * Key of delimiter between the cases of a batch
+     */
+    private static final String KEY_GENERATOR_DELIMITER = "delimiter";
+
+    /**
+     * Default delimiter between cases
+     */
+    private static final String DEFAULT_DELIMITER = "---\n";
+
     /**
      * Configuration
      */
@@ -53,6 +103,16 @@ public class Exam {
      */
     private final int epoch;
 
+    /**
+     * number of epochs running at the same time
+     */
+    private final int parallelism;
+
+    /**
+     * number of epochs whose cases run by project in one launch
+     */
+    private final int groupSize;
+
     /**
      * Project code
      */
@@ -63,6 +123,16 @@ public class Exam {
      */
     private final LanguageRuntime generator;
 
+    /**
+     * Source of cases when the generator generates in batch, null if generating one case each run
+     */
+    private final BatchedCaseSource batchedCases;
+
+    /**
+     * Cases generated before, null if duplicate cases are not found
+     */
+    private final BloomFilter generatedCases;
+
     /**
      * Exam
      */
@@ -83,6 +153,21 @@ public class Exam {
      */
     private final Charset charset;
 
+    /**
+     * Time the exam is ready to run, in milliseconds since epoch
+     */
+    private final long readyTime;
+
+    /**
+     * Time the first epoch is finished, in milliseconds since epoch, -1 before it
+     */
+    private final AtomicLong firstEpochTime = new AtomicLong(-1);
+
+    /**
+     * Log the startup of examiner or not
+     */
+    private boolean verbose = false;
+
     /**
      * Create examiner by passing work directory and config
      *
@@ -94,6 +179,7 @@ public class Exam {
         new File(workDirectory).mkdirs();
 
         this.epoch = config.epoch;
+        this.parallelism = Math.max(1, config.parallelism);
         if (config.charset.equalsIgnoreCase(CHARSET_BYTE)) {
             transformOutput = false;
             this.charset = null;
@@ -103,7 +189,17 @@ public class Exam {
         }
 
         this.project = LanguageRuntimeProvider.getRuntime(workDirectory, config.project);
+        this.groupSize = config.stream ? 1 : Math.max(1, project.multitest());
         this.generator = LanguageRuntimeProvider.getRuntime(workDirectory, config.generator);
+        var batch = Integer.parseInt(config.generator.getOrDefault(KEY_GENERATOR_BATCH, 1).toString());
+        this.batchedCases = batch <= 1 ? null : new BatchedCaseSource(generator,
+                generatorInput(config),
+                batch,
+                CaseFraming.of(config.generator.getOrDefault(KEY_GENERATOR_FRAMING, CaseFraming.DELIMITER).toString()),
+                config.generator.getOrDefault(KEY_GENERATOR_DELIMITER, DEFAULT_DELIMITER).toString()
+                        .getBytes(Environment.SYSTEM_CHARSET));
+        this.generatedCases = config.dedupe.enabled && !config.stream
+                ? new BloomFilter(config.dedupe.memory, epoch) : null;
         this.examiner = ExaminerProvider.getExaminer(workDirectory, config.examiner);
 
         this.logger = ExamLoggerProvider.getExamLogger(workDirectory, config.log);
@@ -112,27 +208,86 @@ public class Exam {
         new File(logDir).mkdirs();
 
         this.config = config;
+        this.readyTime = System.currentTimeMillis();
     }
 
     /**
-     * Build the project
+     * Log the time from the start of JVM to the exam ready, and to the end of first epoch, after examining
+     *
+     * @param verbose verbose or not
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Build the project, the generator and the examiner at the same time. Their outputs are reported in this order
+     * once all of them finished, failing by the first of them failed.
      *
      * @param buildProject   build project or not
      * @param buildGenerator build generator or not
      * @param buildExaminer  build examiner or not
      */
     public void build(boolean buildProject, boolean buildGenerator, boolean buildExaminer) {
+        Map<String, Supplier<Environment.SystemOutput>> builds = new LinkedHashMap<>();
         if (buildProject) {
-            var pout = project.compile();
-            handleSystemOutput("Project built", pout);
+            builds.put("Project built", project::compile);
         }
         if (buildGenerator) {
-            var gout = generator.compile();
-            handleSystemOutput("Generator built", gout);
+            builds.put("Generator built", generator::compile);
         }
         if (buildExaminer) {
-            var eout = examiner.build();
-            handleSystemOutput("Examiner built", eout);
+            builds.put("Examiner built", examiner::build);
+        }
+        if (builds.isEmpty()) {
+            return;
+        }
+        var start = System.nanoTime();
+        var workers = Executors.newFixedThreadPool(
+                Math.min(builds.size(), Math.max(1, Runtime.getRuntime().availableProcessors())));
+        Map<String, CompletableFuture<Environment.SystemOutput>> running = new LinkedHashMap<>();
+        try {
+            builds.forEach((process, build) -> running.put(process, CompletableFuture.supplyAsync(build, workers)));
+            // wait for all of them, so that a failure does not leave the others building
+            CompletableFuture.allOf(running.values().toArray(CompletableFuture[]::new))
+                    .exceptionally(e -> null)
+                    .join();
+        } finally {
+            workers.shutdown();
+        }
+        logger.logBuildStatistic(builds.size(), (System.nanoTime() - start) / 1_000_000);
+        // every component is reported, then the first failure in order is thrown
+        RuntimeException failure = null;
+        for (var entry : running.entrySet()) {
+            try {
+                handleSystemOutput(logger, entry.getKey(), join(entry.getValue()));
+            } catch (ProcessExecutionFailedException e) {
+                failure = failure == null ? e : failure;
+            } catch (RuntimeException e) {
+                // a build throwing has no output, its exception is reported instead
+                logger.logStdErrMessage(entry.getKey(), String.valueOf(e.getMessage()));
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Wait for the output of a build, throwing the exception it failed by
+     *
+     * @param build build
+     * @return output
+     */
+    private static Environment.SystemOutput join(CompletableFuture<Environment.SystemOutput> build) {
+        try {
+            return build.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new LanguageRuntime.CompilationException(e.getCause());
         }
     }
 
@@ -145,105 +300,459 @@ public class Exam {
      */
     public void examine() throws IOException {
         var stat = new ExamStatus();
-        for (int i = 1; i <= epoch; i++) {
-            if (!epoch(i, stat)) {
-                break;
+        var sequencer = new SequencedLogger(logger, 1);
+        List<PipelineStage.StageStatistic> stages = List.of();
+        if (config.pipeline.enabled) {
+            stages = examinePipeline(stat, sequencer);
+        } else if (parallelism == 1) {
+            for (int i = 1; i <= epoch; i += groupSize) {
+                epochs(i, stat, sequencer);
             }
+        } else {
+            examineParallel(stat, sequencer);
         }
 
-        logger.logStatistic(stat.total, stat.success, stat.failed, stat.error);
+        logger.logStatistic(stat.total.get(), stat.success.get(), stat.failed.get(), stat.error.get());
+        for (var stage : stages) {
+            logger.logStageStatistic(stage.stage(), stage.processed(), stage.averageDepth(), stage.maxDepth(),
+                    stage.throughput());
+        }
+        if (generatedCases != null) {
+            logger.logDuplicateStatistic(stat.generated.get(), stat.duplicated.get(), stat.skipped.get());
+        }
+        if (verbose) {
+            // management is only loaded here, after the times are taken, so that it is not counted into them
+            var start = ManagementFactory.getRuntimeMXBean().getStartTime();
+            var first = firstEpochTime.get();
+            logger.logStartupStatistic(readyTime - start, first < 0 ? -1 : first - start);
+        }
+    }
 
+    /**
+     * Run the epochs by a pool of workers, each worker takes the next group of epochs once it finished its previous one
+     *
+     * @param stat      status
+     * @param sequencer sequencer of logs
+     */
+    private void examineParallel(ExamStatus stat, SequencedLogger sequencer) {
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        var next = new AtomicInteger(1);
+        for (int w = 0; w < parallelism; w++) {
+            workers.submit(() -> {
+                int i;
+                while ((i = next.getAndAdd(groupSize)) <= epoch) {
+                    epochs(i, stat, sequencer);
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting for the epochs
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * Run an epoch
+     * Run the epochs through the generator, project and examiner stages at the same time
      *
-     * @return continue or not
+     * @param stat      status
+     * @param sequencer sequencer of logs
+     * @return statistic of stages
      */
-    private boolean epoch(int i, ExamStatus status) {
-        status.total++;
-        var pathInput = Paths.get(logDir + File.separator + i + ".in");
-        var pathOutput = Paths.get(logDir + File.separator + i + ".out");
-        var pathExpect = Paths.get(logDir + File.separator + i + ".expect");
+    private List<PipelineStage.StageStatistic> examinePipeline(ExamStatus stat, SequencedLogger sequencer) {
+        var examinerFailure = stageFailure("examiner", stat);
+        var pipeline = new Pipeline<List<EpochState>>(config.pipeline.queue)
+                .stage("generator", parallelism, group -> group.forEach(state -> generateStage(state, stat)),
+                        stageFailure("generator", stat))
+                .stage("project", parallelism, group -> projectStage(group, stat), stageFailure("project", stat))
+                .stage("examiner", parallelism, group -> {
+                    for (var state : group) {
+                        try {
+                            examineStage(state, stat);
+                        } catch (Throwable e) {
+                            // the log of epoch is replayed by finishing it, the failure goes into it before that
+                            examinerFailure.accept(List.of(state), e);
+                        } finally {
+                            finishStage(state, sequencer);
+                        }
+                    }
+                }, examinerFailure);
+        var source = IntStream.iterate(1, i -> i <= epoch, i -> i + groupSize).mapToObj(this::group).iterator();
+        try {
+            pipeline.run(source);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return pipeline.statistics();
+    }
+
+    /**
+     * Handler of a failure escaping a stage of pipeline: the epochs of group still running are terminated by an error
+     *
+     * @param stage name of stage
+     * @param stat  status
+     * @return handler
+     */
+    private BiConsumer<List<EpochState>, Throwable> stageFailure(String stage, ExamStatus stat) {
+        return (group, e) -> {
+            for (var state : group) {
+                if (!state.terminated) {
+                    handleEpochException(state, stat, new Environment.EnvironmentExecutionException(
+                            "Stage <%s> failed: %s".formatted(stage, e)));
+                    stat.error.incrementAndGet();
+                }
+            }
+        };
+    }
 
-        Environment.SystemOutput testCase = null, projectOutput = null;
+    /**
+     * Run a group of epochs starting from epoch i
+     */
+    private void epochs(int i, ExamStatus status, SequencedLogger sequencer) {
+        var group = group(i);
+        try {
+            group.forEach(state -> generateStage(state, status));
+            projectStage(group, status);
+        } finally {
+            for (var state : group) {
+                try {
+                    examineStage(state, status);
+                } finally {
+                    finishStage(state, sequencer);
+                }
+            }
+        }
+    }
 
-        Examiner.ExamineResult examinerOutput = null;
+    /**
+     * The group of epochs starting from epoch i, running the project in one launch
+     *
+     * @param i first epoch
+     * @return epochs
+     */
+    private List<EpochState> group(int i) {
+        return IntStream.rangeClosed(i, Math.min(epoch, i + groupSize - 1)).mapToObj(EpochState::new).toList();
+    }
 
+    /**
+     * Generate the test case of an epoch
+     *
+     * @param state  epoch
+     * @param status status
+     */
+    private void generateStage(EpochState state, ExamStatus status) {
+        status.total.incrementAndGet();
         try {
-            logger.logStart(i);
+            state.log.logStart(state.index);
+
+            if (config.stream) {
+                // the case is generated while the project is running
+                return;
+            }
 
             // test the code
-            testCase = generateTestCase();
+            state.testCase = generateTestCase();
 
-            handleSystemOutput("Test Case Generation", testCase);
+            handleSystemOutput(state.log, "Test Case Generation", state.testCase);
 
-            projectOutput = project.run(testCase.stdout());
+            if (generatedCases != null) {
+                dedupeStage(state, status);
+            }
+        } catch (Exception e) {
+            handleEpochException(state, status, e);
+        }
+    }
 
-            handleSystemOutput("Project Running", projectOutput);
+    /**
+     * Find if the test case of an epoch was generated before, then generate it again or skip the epoch
+     *
+     * @param state  epoch
+     * @param status status
+     */
+    private void dedupeStage(EpochState state, ExamStatus status) {
+        var attempts = 0;
+        while (true) {
+            status.generated.incrementAndGet();
+            if (!generatedCases.put(state.testCase.out())) {
+                return;
+            }
+            status.duplicated.incrementAndGet();
+            state.testCase.release();
+            state.testCase = null;
+            if (!config.dedupe.regenerate() || attempts++ >= config.dedupe.attempts) {
+                state.terminated = true;
+                state.log.logSkipped(state.index, "duplicate test case");
+                status.skipped.incrementAndGet();
+                return;
+            }
+            state.testCase = generateTestCase();
+            handleSystemOutput(state.log, "Test Case Generation", state.testCase);
+        }
+    }
 
-            examinerOutput = examiner.examine(testCase.stdout(), projectOutput.stdout());
+    /**
+     * Run the project on the test cases of a group of epochs
+     *
+     * @param group  epochs
+     * @param status status
+     */
+    private void projectStage(List<EpochState> group, ExamStatus status) {
+        if (config.stream) {
+            group.forEach(state -> streamStage(state, status));
+            return;
+        }
+        var running = group.stream().filter(state -> !state.terminated).toList();
+        if (running.isEmpty()) {
+            return;
+        }
+        // the examiner works on the inputs while the project runs
+        for (var state : running) {
+            try {
+                state.speculation = examiner.begin(state.testCase.out());
+            } catch (Exception e) {
+                handleEpochException(state, status, e);
+            }
+        }
+        running = running.stream().filter(state -> !state.terminated).toList();
+        if (running.isEmpty()) {
+            return;
+        }
+        List<Supplier<Environment.SystemOutput>> outputs;
+        try {
+            outputs = project.runMultiple(running.stream().map(state -> state.testCase.out()).toList());
+        } catch (Exception e) {
+            running.forEach(state -> handleEpochException(state, status, e));
+            return;
+        }
+        for (int k = 0; k < running.size(); k++) {
+            var state = running.get(k);
+            try {
+                state.projectOutput = outputs.get(k).get();
+
+                handleSystemOutput(state.log, "Project Running", state.projectOutput);
+            } catch (Environment.TimeoutException e) {
+                // keep what the project printed before it was killed
+                state.projectOutput = e.partial;
+                handleEpochException(state, status, e);
+            } catch (Exception e) {
+                handleEpochException(state, status, e);
+            }
+        }
+    }
 
-            switch (examinerOutput.state()) {
-                case Examiner.SUCCESS -> status.success++;
-                case Examiner.FAILED -> status.failed++;
-                case Examiner.ERROR -> status.error++;
+    /**
+     * Generate the case and run the project at the same time, the generator stdout is piped into the project stdin
+     * and written into the log of input as it goes
+     *
+     * @param state  epoch
+     * @param status status
+     */
+    private void streamStage(EpochState state, ExamStatus status) {
+        if (state.terminated) {
+            return;
+        }
+        var pathInput = Paths.get(logDir + File.separator + state.index + ".in");
+        try {
+            Files.deleteIfExists(pathInput);
+            var process = generator.start(generatorInput(config));
+            var stderr = CompletableFuture.supplyAsync(() -> {
+                try (var err = process.getErrorStream()) {
+                    return err.readAllBytes();
+                } catch (IOException e) {
+                    return new byte[0];
+                }
+            }, generator.environment().pumps());
+            boolean exited;
+            try (var tee = new TeeInputStream(process.getInputStream(),
+                    new BufferedOutputStream(Files.newOutputStream(pathInput)), true)) {
+                state.streamedInput = pathInput;
+                try {
+                    state.projectOutput = project.run(tee);
+                } finally {
+                    // the rest of case not read by the project still goes into the log
+                    var rest = CompletableFuture.runAsync(() -> {
+                        try {
+                            tee.transferTo(OutputStream.nullOutputStream());
+                        } catch (IOException ignored) {
+                            // the generator is killed
+                        }
+                    }, generator.environment().pumps());
+                    exited = process.waitFor(generator.timeLimit(), TimeUnit.MILLISECONDS);
+                    if (!exited) {
+                        process.destroyForcibly();
+                    }
+                    rest.join();
+                }
             }
+            state.testCase = new Environment.SystemOutput(exited ? process.exitValue() : -1, new byte[0], stderr.join());
+            if (!exited) {
+                throw new Environment.TimeoutException(generator.timeLimit());
+            }
+            handleSystemOutput(state.log, "Test Case Generation", state.testCase);
+
+            handleSystemOutput(state.log, "Project Running", state.projectOutput);
         } catch (Environment.TimeoutException e) {
-            logger.logError(i, e.getMessage());
-            status.failed ++;
-        } catch (ProcessExecutionFailedException e) {
-            logger.logError(i, "Process <%s> failed".formatted(e.getMessage()));
-            status.failed ++;
+            if (state.projectOutput == null) {
+                state.projectOutput = e.partial;
+            }
+            handleEpochException(state, status, e);
         } catch (Exception e) {
-            logger.logError(i, e.getMessage());
+            handleEpochException(state, status, e);
+        }
+    }
+
+    /**
+     * Examine the project output of an epoch
+     *
+     * @param state  epoch
+     * @param status status
+     */
+    private void examineStage(EpochState state, ExamStatus status) {
+        if (state.terminated) {
+            return;
+        }
+        try {
+            if (state.streamedInput != null) {
+                state.examinerOutput = examiner.examine(state.streamedInput, state.projectOutput.out());
+            } else if (state.speculation != null) {
+                state.examinerOutput = state.speculation.examine(state.projectOutput.out());
+            } else {
+                state.examinerOutput = examiner.examine(state.testCase.out(), state.projectOutput.out());
+            }
+
+            switch (state.examinerOutput.state()) {
+                case Examiner.SUCCESS -> status.success.incrementAndGet();
+                case Examiner.FAILED -> status.failed.incrementAndGet();
+                case Examiner.ERROR -> status.error.incrementAndGet();
+            }
+        } catch (Exception e) {
+            handleEpochException(state, status, e);
+        }
+    }
+
+    /**
+     * Handle an exception happened in an epoch, and terminate the epoch
+     *
+     * @param state  epoch
+     * @param status status
+     * @param e      exception
+     */
+    private void handleEpochException(EpochState state, ExamStatus status, Exception e) {
+        state.terminated = true;
+        if (state.speculation != null) {
+            // the examination begun is not needed anymore
+            state.speculation.cancel();
+        }
+        if (e instanceof Environment.TimeoutException) {
+            state.log.logError(state.index, e.getMessage());
+            status.failed.incrementAndGet();
+        } else if (e instanceof ProcessExecutionFailedException) {
+            state.log.logError(state.index, "Process <%s> failed".formatted(e.getMessage()));
+            status.failed.incrementAndGet();
+        } else {
+            state.log.logError(state.index, e.getMessage());
         }
+    }
 
-        if (testCase != null) {
+    /**
+     * Write the files of an epoch, then log its result
+     *
+     * @param state     epoch
+     * @param sequencer sequencer of logs
+     */
+    private void finishStage(EpochState state, SequencedLogger sequencer) {
+        var i = state.index;
+        var logger = state.log;
+        var pathInput = Paths.get(logDir + File.separator + i + ".in");
+        var pathOutput = Paths.get(logDir + File.separator + i + ".out");
+        var pathExpect = Paths.get(logDir + File.separator + i + ".expect");
+
+        if (state.testCase != null && state.streamedInput == null) {
             try {
                 // write the possible outputs into the system
-                writeCase(pathInput, testCase.stdout());
+                writeCase(pathInput, state.testCase.out());
             } catch (IOException e) {
                 logger.logError(i, e.getMessage());
             }
         }
 
-        if (projectOutput != null) {
+        if (state.projectOutput != null) {
             try {
-                writeCase(pathOutput, projectOutput.stdout());
+                writeCase(pathOutput, state.projectOutput.out());
             } catch (IOException e) {
                 logger.logError(i, e.getMessage());
             }
         }
 
-        if (examinerOutput != null && examinerOutput.info().isPresent()) {
+        if (state.examinerOutput != null && state.examinerOutput.info().isPresent()) {
             try {
-                writeCase(pathExpect, examinerOutput.info().get());
+                writeCase(pathExpect, state.examinerOutput.info().get());
             } catch (IOException e) {
                 logger.logError(i, e.getMessage());
             }
         }
 
-        if (examinerOutput != null) {
+        if (state.examinerOutput != null) {
             // logStdErrMessage the end
-            logger.logResult(i, examinerOutput);
+            logger.logResult(i, state.examinerOutput);
+        }
+        try {
+            release(state);
+        } finally {
+            // the epochs after it are only logged once it is completed
+            firstEpochTime.compareAndSet(-1, System.currentTimeMillis());
+            sequencer.complete(i, logger);
+        }
+    }
+
+    /**
+     * Release the outputs of an epoch spilled into files, once they are written into the log folder
+     *
+     * @param state epoch
+     */
+    private static void release(EpochState state) {
+        if (state.testCase != null) {
+            state.testCase.release();
+        }
+        if (state.projectOutput != null) {
+            state.projectOutput.release();
+        }
+        if (state.examinerOutput != null) {
+            state.examinerOutput.info().ifPresent(OutputBuffer::release);
         }
-        return true;
     }
 
     private Environment.SystemOutput generateTestCase() {
-        return generator.run(config.generator.getOrDefault("input", "").toString().getBytes(Environment.SYSTEM_CHARSET));
+        if (batchedCases != null) {
+            return batchedCases.next();
+        }
+        return generator.run(generatorInput(config));
+    }
+
+    /**
+     * Input given to the generator
+     *
+     * @param config configuration
+     * @return input
+     */
+    private static byte[] generatorInput(ExaminerConfiguration config) {
+        return config.generator.getOrDefault(KEY_GENERATOR_INPUT, "").toString().getBytes(Environment.SYSTEM_CHARSET);
     }
 
     /**
      * Handle a single system output
      * It will throw a process execution failed exception if the process is failed,
      *
+     * @param logger  logger
      * @param process process
      * @param output  output of system
      */
-    private void handleSystemOutput(String process, Environment.SystemOutput output) {
-        logErrorStreamIfPresent(process, output);
+    private void handleSystemOutput(ExamLogger logger, String process, Environment.SystemOutput output) {
+        logErrorStreamIfPresent(logger, process, output);
         if (output.exitCode() != Environment.EXIT_SUCCESS) {
             throw new ProcessExecutionFailedException(process);
         }
@@ -252,10 +761,11 @@ public class Exam {
     /**
      * Log an error stream if its size >= 1
      *
+     * @param logger logger
      * @param output output
      */
-    private void logErrorStreamIfPresent(String process, Environment.SystemOutput output) {
-        if (output.stderr().length > 0) {
+    private void logErrorStreamIfPresent(ExamLogger logger, String process, Environment.SystemOutput output) {
+        if (output.err().size() > 0) {
             logger.logStdErrMessage(process, new String(output.stderr(), Environment.SYSTEM_CHARSET));
         }
     }
@@ -266,14 +776,18 @@ public class Exam {
      * @param path path
      * @param data data
      */
-    private void writeCase(Path path, byte[] data) throws IOException {
+    private void writeCase(Path path, OutputBuffer data) throws IOException {
         if (Files.exists(path)) {
             Files.delete(path);
         }
         if (transformOutput) {
-            Files.writeString(path, new String(data, Environment.SYSTEM_CHARSET), charset, StandardOpenOption.CREATE_NEW);
+            // transcode as a stream, so that a spilled output is never loaded into memory
+            try (var reader = new InputStreamReader(data.open(), Environment.SYSTEM_CHARSET);
+                 var writer = Files.newBufferedWriter(path, charset, StandardOpenOption.CREATE_NEW)) {
+                reader.transferTo(writer);
+            }
         } else {
-            Files.write(path, data, StandardOpenOption.CREATE_NEW);
+            data.writeTo(path);
         }
     }
 
@@ -294,6 +808,8 @@ public class Exam {
     public static class ExaminerConfiguration {
         public int epoch;
 
+        public int parallelism = 1;
+
         public ExamLogger.LogConfiguration log = new ExamLogger.LogConfiguration();
 
         public Map<String, Object> project;
@@ -304,23 +820,132 @@ public class Exam {
 
         public String charset;
 
+        public PipelineConfiguration pipeline = new PipelineConfiguration();
+
+        public boolean stream = false;
+
+        public DedupeConfiguration dedupe = new DedupeConfiguration();
+
         @Override
         public String toString() {
             return "ExaminerConfiguration{" +
                     "epoch=" + epoch +
+                    ", parallelism=" + parallelism +
                     ", log=" + log +
                     ", project=" + project +
                     ", generator=" + generator +
                     ", examiner=" + examiner +
                     ", charset='" + charset + '\'' +
+                    ", pipeline=" + pipeline +
+                    ", stream=" + stream +
+                    ", dedupe=" + dedupe +
                     '}';
         }
     }
 
+    public static class PipelineConfiguration {
+        /**
+         * Run generator, project and examiner as stages of pipeline or not
+         */
+        public boolean enabled = false;
+
+        /**
+         * Capacity of queue between two stages
+         */
+        public int queue = 4;
+
+        @Override
+        public String toString() {
+            return "PipelineConfiguration{" +
+                    "enabled=" + enabled +
+                    ", queue=" + queue +
+                    '}';
+        }
+    }
+
+    public static class DedupeConfiguration {
+        /**
+         * Policy generating the case of epoch again when it is a duplicate
+         */
+        private static final String POLICY_REGENERATE = "regenerate";
+
+        /**
+         * Find the test cases generated before or not
+         */
+        public boolean enabled = false;
+
+        /**
+         * Bytes of memory remembering the cases generated
+         */
+        public long memory = 8L << 20;
+
+        /**
+         * "regenerate" the case of epoch when it is a duplicate, or "skip" the epoch
+         */
+        public String policy = POLICY_REGENERATE;
+
+        /**
+         * Max times generating the case again before skipping the epoch
+         */
+        public int attempts = 16;
+
+        /**
+         * Generate the case again when it is a duplicate or not
+         *
+         * @return regenerate or not
+         */
+        public boolean regenerate() {
+            return POLICY_REGENERATE.equalsIgnoreCase(policy);
+        }
+
+        @Override
+        public String toString() {
+            return "DedupeConfiguration{" +
+                    "enabled=" + enabled +
+                    ", memory=" + memory +
+                    ", policy='" + policy + '\'' +
+                    ", attempts=" + attempts +
+                    '}';
+        }
+    }
+
+    /**
+     * State of an epoch passing through the stages
+     */
+    private static class EpochState {
+        final int index;
+        final EpochLogBuffer log = new EpochLogBuffer();
+        Environment.SystemOutput testCase;
+        Environment.SystemOutput projectOutput;
+        Examiner.ExamineResult examinerOutput;
+
+        /**
+         * File the case is streamed into, null if the case is not streamed
+         */
+        Path streamedInput;
+
+        /**
+         * Examination begun on the case while the project runs, null if not begun
+         */
+        Examiner.Speculation speculation;
+
+        /**
+         * The epoch is terminated by an error, following stages are skipped
+         */
+        boolean terminated = false;
+
+        EpochState(int index) {
+            this.index = index;
+        }
+    }
+
     private static class ExamStatus {
-        int success = 0;
-        int failed = 0;
-        int error = 0;
-        int total = 0;
+        final AtomicInteger success = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger error = new AtomicInteger();
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicLong generated = new AtomicLong();
+        final AtomicLong duplicated = new AtomicLong();
     }
 }
@@ -33,8 +33,13 @@ public class Main {
         }
         var command = args[0];
         final var properties = new Properties();
+        var verbose = false;
 
         for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-v")) {
+                verbose = true;
+                continue;
+            }
             var a = Arrays.stream(args[i].split("=")).map(String::trim).toArray(String[]::new);
             properties.put(a[0], a[1]);
         }
@@ -75,6 +80,7 @@ public class Main {
 
         var conf = Configuration.getConfiguration(confPath);
         var exam = new Exam(System.getProperty("user.dir"), conf);
+        exam.setVerbose(verbose);
 
         switch (command) {
             case "run" -> {
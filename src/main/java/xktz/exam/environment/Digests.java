@@ -0,0 +1,97 @@
+package xktz.exam.environment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 digests of contents, used to address contents by their hash
+ *
+ * @author XKTZ
+ * @date 2022-12-30
+ */
+public final class Digests {
+
+    private Digests() {
+    }
+
+    /**
+     * New SHA-256 digest
+     *
+     * @return digest
+     */
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+    }
+
+    /**
+     * Put a string into digest, ended by a zero byte so that following data could not be mistaken as part of it
+     *
+     * @param digest digest
+     * @param value  string
+     */
+    public static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(Environment.SYSTEM_CHARSET));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Put the content of a file into digest
+     *
+     * @param digest digest
+     * @param file   file
+     */
+    public static void update(MessageDigest digest, Path file) throws IOException {
+        try (var in = Files.newInputStream(file)) {
+            update(digest, in);
+        }
+    }
+
+    /**
+     * Put an output into digest, streaming it if it is spilled
+     *
+     * @param digest digest
+     * @param data   output
+     */
+    public static void update(MessageDigest digest, OutputBuffer data) throws IOException {
+        if (data.inMemory()) {
+            digest.update(data.bytes());
+            return;
+        }
+        try (var in = data.open()) {
+            update(digest, in);
+        }
+    }
+
+    /**
+     * Put a stream into digest, reading it to the end
+     *
+     * @param digest digest
+     * @param in     stream
+     */
+    private static void update(MessageDigest digest, InputStream in) throws IOException {
+        try (var digesting = new DigestInputStream(in, digest)) {
+            digesting.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    /**
+     * Finish digest into hex
+     *
+     * @param digest digest
+     * @return hex of hash
+     */
+    public static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -2,10 +2,14 @@ package xktz.exam.environment;
 
 import xktz.exam.environment.system.SystemType;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * An environment is the environment get code running.
@@ -42,6 +46,40 @@ public interface Environment {
      */
     SystemOutput executeCommand(String dir, long timeLimit, byte[] input, String... commands);
 
+    /**
+     * Execute a piece get command in environment, streaming the input into the process as it is read.
+     * Environments not able to stream read the whole input first.
+     *
+     * @param dir       directory executing command on
+     * @param timeLimit time limit
+     * @param input     input stream
+     * @param commands  commands
+     * @return result (stdout, stderr)
+     */
+    default SystemOutput executeCommand(String dir, long timeLimit, InputStream input, String... commands) {
+        try {
+            return executeCommand(dir, timeLimit, input.readAllBytes(), commands);
+        } catch (IOException e) {
+            throw new EnvironmentExecutionException(e);
+        }
+    }
+
+    /**
+     * Execute a piece get command in environment without blocking.
+     * The future fails by {@link TimeoutException} if the time limit is exceeded, and cancelling it kills the process.
+     * By default the execution blocks a pump thread, and cancelling it does not kill the process.
+     *
+     * @param dir       directory executing command on
+     * @param timeLimit time limit
+     * @param input     input
+     * @param commands  commands
+     * @return future of result (stdout, stderr)
+     */
+    default CompletableFuture<SystemOutput> executeCommandAsync(String dir, long timeLimit, byte[] input,
+                                                               String... commands) {
+        return CompletableFuture.supplyAsync(() -> executeCommand(dir, timeLimit, input, commands), pumps());
+    }
+
     /**
      * Execute a piece get command in environment
      *
@@ -77,6 +115,46 @@ public interface Environment {
         return executeCommand(dir, timeLimit, new byte[]{}, commands);
     }
 
+    /**
+     * Executor of the tasks moving data into & out of the processes. They block on pipes, so they are never run on the
+     * common pool, where they would hold the threads of computations.
+     *
+     * @return executor, a daemon thread for each task by default
+     */
+    default Executor pumps() {
+        return runnable -> {
+            var thread = new Thread(runnable, "process-pump");
+            thread.setDaemon(true);
+            thread.start();
+        };
+    }
+
+    /**
+     * Start a process in environment, leaving its stdin, stdout and stderr as pipes
+     *
+     * @param dir      directory executing command on
+     * @param commands commands
+     * @return process
+     */
+    Process start(String dir, String... commands);
+
+    /**
+     * Keep processes of a command started ahead of time, waiting for their input. Following executions of the same
+     * command in the same directory take a started process when there is one ready.
+     *
+     * @param dir      directory executing command on
+     * @param size     number of processes kept started
+     * @param commands commands
+     */
+    default void prespawn(String dir, int size, String... commands) {
+    }
+
+    /**
+     * Kill all the processes started ahead of time, for example because the executable is rebuilt
+     */
+    default void invalidatePrespawned() {
+    }
+
     /**
      * Environment inherited IO
      *
@@ -84,12 +162,53 @@ public interface Environment {
      */
     void executeInheritIOCommand(String... commands);
 
-    public record SystemOutput(int exitCode, byte[] stdout, byte[] stderr) {
+    /**
+     * Output of a process, large outputs may be spilled into files
+     *
+     * @param exitCode exit code
+     * @param out      stdout
+     * @param err      stderr
+     */
+    public record SystemOutput(int exitCode, OutputBuffer out, OutputBuffer err) {
+        public SystemOutput(int exitCode, byte[] stdout, byte[] stderr) {
+            this(exitCode, OutputBuffer.of(stdout), OutputBuffer.of(stderr));
+        }
+
+        /**
+         * Stdout as an array, it is loaded into heap if it is spilled
+         *
+         * @return stdout
+         */
+        public byte[] stdout() {
+            return out.bytes();
+        }
+
+        /**
+         * Stderr as an array, it is loaded into heap if it is spilled
+         *
+         * @return stderr
+         */
+        public byte[] stderr() {
+            return err.bytes();
+        }
+
+        /**
+         * Release the spill files of output
+         */
+        public void release() {
+            out.release();
+            err.release();
+        }
     }
 
     public class TimeoutException extends RuntimeException {
         public byte[] input;
 
+        /**
+         * Output of process before it was killed, null if unknown
+         */
+        public SystemOutput partial;
+
         public TimeoutException(long timeLimit) {
             super("Time Limit Exceeded: %d".formatted(timeLimit));
         }
@@ -98,6 +217,11 @@ public interface Environment {
             this(timeLimit);
             this.input = input;
         }
+
+        public TimeoutException(long timeLimit, byte[] input, SystemOutput partial) {
+            this(timeLimit, input);
+            this.partial = partial;
+        }
     }
 
     /**
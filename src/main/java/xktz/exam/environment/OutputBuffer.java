@@ -0,0 +1,247 @@
+package xktz.exam.environment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output of a process. Small outputs are kept in memory, large ones are spilled into a file and read back by mapping
+ * the file, so that they never need to be loaded into the heap.
+ *
+ * @author XKTZ
+ * @date 2022-12-26
+ */
+public interface OutputBuffer {
+
+    /**
+     * Empty buffer
+     */
+    OutputBuffer EMPTY = of(new byte[0]);
+
+    /**
+     * Size in bytes
+     *
+     * @return size
+     */
+    long size();
+
+    /**
+     * Open a stream reading the data from start
+     *
+     * @return stream
+     */
+    InputStream open();
+
+    /**
+     * Read-only view of a range of data
+     *
+     * @param position start of range
+     * @param length   length of range
+     * @return view
+     */
+    ByteBuffer map(long position, int length);
+
+    /**
+     * Read-only view of all the data
+     *
+     * @return view
+     */
+    default ByteBuffer map() {
+        if (size() > Integer.MAX_VALUE) {
+            throw new Environment.EnvironmentExecutionException("Output of %d bytes is too large to map at once"
+                    .formatted(size()));
+        }
+        return map(0, (int) size());
+    }
+
+    /**
+     * Data as an array, loading it into heap if it is spilled
+     *
+     * @return data
+     */
+    byte[] bytes();
+
+    /**
+     * Data is kept in memory or not
+     *
+     * @return in memory or not
+     */
+    boolean inMemory();
+
+    /**
+     * Write the data into a file as it is
+     *
+     * @param path path
+     */
+    void writeTo(Path path) throws IOException;
+
+    /**
+     * Release the file of data, if it is spilled. The buffer must not be used afterwards.
+     */
+    default void release() {
+    }
+
+    /**
+     * Buffer of data in memory
+     *
+     * @param data data
+     * @return buffer
+     */
+    static OutputBuffer of(byte[] data) {
+        return new HeapBuffer(data);
+    }
+
+    /**
+     * Buffer of first length bytes in a spill file, the file is deleted when released
+     *
+     * @param file   file
+     * @param length length
+     * @return buffer
+     */
+    static OutputBuffer ofSpilled(Path file, long length) {
+        return new FileBuffer(file, length, true);
+    }
+
+    /**
+     * Buffer of first length bytes in a file kept by others, the file is left there when released
+     *
+     * @param file   file
+     * @param length length
+     * @return buffer
+     */
+    static OutputBuffer ofFile(Path file, long length) {
+        return new FileBuffer(file, length, false);
+    }
+
+    /**
+     * Data in memory
+     */
+    record HeapBuffer(byte[] data) implements OutputBuffer {
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public ByteBuffer map(long position, int length) {
+            return ByteBuffer.wrap(data, (int) position, length).slice().asReadOnlyBuffer();
+        }
+
+        @Override
+        public byte[] bytes() {
+            return data;
+        }
+
+        @Override
+        public boolean inMemory() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(Path path) throws IOException {
+            Files.write(path, data, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    /**
+     * Data in a file, which is deleted when released if it is owned by the buffer
+     */
+    record FileBuffer(Path file, long length, boolean owned) implements OutputBuffer {
+        @Override
+        public long size() {
+            return length;
+        }
+
+        @Override
+        public InputStream open() {
+            try {
+                var in = Files.newInputStream(file);
+                return new InputStream() {
+                    private long remaining = length;
+
+                    @Override
+                    public int read() throws IOException {
+                        if (remaining <= 0) {
+                            return -1;
+                        }
+                        remaining--;
+                        return in.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (remaining <= 0) {
+                            return -1;
+                        }
+                        var n = in.read(b, off, (int) Math.min(len, remaining));
+                        if (n > 0) {
+                            remaining -= n;
+                        }
+                        return n;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        in.close();
+                    }
+                };
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public ByteBuffer map(long position, int length) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public byte[] bytes() {
+            try (var in = open()) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean inMemory() {
+            return false;
+        }
+
+        @Override
+        public void writeTo(Path path) throws IOException {
+            try (var in = open()) {
+                Files.copy(in, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        @Override
+        public void release() {
+            if (!owned) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // deleted when the scratch folder is cleaned
+            }
+        }
+    }
+}
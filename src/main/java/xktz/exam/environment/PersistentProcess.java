@@ -0,0 +1,221 @@
+package xktz.exam.environment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A process staying alive to handle many requests through its stdin & stdout.
+ * It is started again when it crashed, or killed because a request timed out.
+ *
+ * @author XKTZ
+ * @date 2022-12-12
+ */
+public class PersistentProcess implements AutoCloseable {
+
+    /**
+     * Max size of stderr kept
+     */
+    private static final int STDERR_LIMIT = 1 << 16;
+
+    /**
+     * Start the process
+     */
+    private final Supplier<Process> starter;
+
+    /**
+     * Thread doing the exchanges, so that a hanging exchange could be timed out
+     */
+    private final ExecutorService io;
+
+    /**
+     * Running process
+     */
+    private Process process;
+
+    /**
+     * Stderr of process since last taken
+     */
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+    /**
+     * @param starter start the process
+     */
+    public PersistentProcess(Supplier<Process> starter) {
+        this.starter = starter;
+        this.io = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "persistent-process-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Do an exchange with the process. The process is started if it is not alive.
+     * If the exchange did not finish in time, or failed, the process is killed.
+     *
+     * @param timeLimit time limit of exchange
+     * @param exchange  exchange, writing into stdin and reading from stdout of process
+     * @param <T>       result of exchange
+     * @return result
+     */
+    public synchronized <T> T exchange(long timeLimit, Exchange<T> exchange) {
+        if (process == null || !process.isAlive()) {
+            start();
+        }
+        var running = process;
+        Future<T> future = io.submit(() -> exchange.exchange(running.getOutputStream(), running.getInputStream()));
+        try {
+            return future.get(timeLimit, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.TimeoutException e) {
+            destroy();
+            future.cancel(true);
+            throw new Environment.TimeoutException(timeLimit);
+        } catch (ExecutionException e) {
+            destroy();
+            throw new Environment.EnvironmentExecutionException(e.getCause());
+        } catch (InterruptedException e) {
+            destroy();
+            Thread.currentThread().interrupt();
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+    }
+
+    /**
+     * Take the stderr printed since last taken
+     *
+     * @return stderr
+     */
+    public byte[] takeStderr() {
+        synchronized (stderr) {
+            var result = stderr.toByteArray();
+            stderr.reset();
+            return result;
+        }
+    }
+
+    /**
+     * Kill the process, it would be started again by next exchange
+     */
+    public synchronized void destroy() {
+        if (process != null) {
+            process.destroyForcibly();
+            process = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        destroy();
+        io.shutdownNow();
+    }
+
+    /**
+     * Start the process, and drain its stderr
+     */
+    private void start() {
+        process = starter.get();
+        var err = process.getErrorStream();
+        var drainer = new Thread(() -> {
+            var buffer = new byte[4096];
+            int n;
+            try {
+                while ((n = err.read(buffer)) > 0) {
+                    synchronized (stderr) {
+                        if (stderr.size() + n > STDERR_LIMIT) {
+                            stderr.reset();
+                        }
+                        stderr.write(buffer, 0, n);
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }, "persistent-process-stderr");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Write a frame: the length of data in a line, then the data
+     *
+     * @param out  stream
+     * @param data data
+     */
+    public static void writeFrame(OutputStream out, byte[] data) throws IOException {
+        out.write((data.length + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(data);
+    }
+
+    /**
+     * Write a frame from a stream
+     *
+     * @param out    stream
+     * @param length length of data
+     * @param data   data
+     */
+    public static void writeFrame(OutputStream out, long length, InputStream data) throws IOException {
+        out.write((length + "\n").getBytes(StandardCharsets.US_ASCII));
+        var written = data.transferTo(out);
+        if (written != length) {
+            throw new IOException("Frame of length %d has %d bytes".formatted(length, written));
+        }
+    }
+
+    /**
+     * Read a frame written as {@link #writeFrame(OutputStream, byte[])}
+     *
+     * @param in stream
+     * @return data
+     */
+    public static byte[] readFrame(InputStream in) throws IOException {
+        var header = readLine(in).trim();
+        int length;
+        try {
+            length = Integer.parseInt(header);
+        } catch (NumberFormatException e) {
+            throw new IOException("Frame header <%s> is not a length".formatted(header));
+        }
+        var data = in.readNBytes(length);
+        if (data.length < length) {
+            throw new EOFException("Process closed its output in a frame");
+        }
+        return data;
+    }
+
+    /**
+     * Read a line, without the line break
+     *
+     * @param in stream
+     * @return line
+     */
+    public static String readLine(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("Process closed its output");
+            }
+            line.write(c);
+        }
+        return line.toString(Environment.SYSTEM_CHARSET);
+    }
+
+    /**
+     * An exchange with the process
+     *
+     * @param <T> result
+     */
+    @FunctionalInterface
+    public interface Exchange<T> {
+        T exchange(OutputStream stdin, InputStream stdout) throws IOException;
+    }
+}
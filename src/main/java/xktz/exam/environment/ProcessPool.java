@@ -0,0 +1,144 @@
+package xktz.exam.environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of processes started ahead of time for a command. They are blocked on reading their stdin until taken, so that
+ * starting the process and loading its libraries are not on the critical path.
+ * A process started before any file in the command is modified (the executable being rebuilt) is never handed out.
+ *
+ * @author XKTZ
+ * @date 2022-12-18
+ */
+public class ProcessPool {
+
+    /**
+     * Directory of command
+     */
+    private final String dir;
+
+    /**
+     * Command
+     */
+    private final String[] commands;
+
+    /**
+     * Number of processes kept
+     */
+    private final int size;
+
+    /**
+     * Executor starting processes
+     */
+    private final Executor starter;
+
+    /**
+     * Processes ready
+     */
+    private final Queue<Spawned> ready = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Processes being started
+     */
+    private final AtomicInteger starting = new AtomicInteger();
+
+    /**
+     * @param dir      directory
+     * @param size     number of processes kept
+     * @param starter  executor starting processes
+     * @param commands command
+     */
+    public ProcessPool(String dir, int size, Executor starter, String... commands) {
+        this.dir = dir;
+        this.commands = commands;
+        this.size = size;
+        this.starter = starter;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::kill));
+        refill();
+    }
+
+    /**
+     * Take a started process, and start another one in background
+     *
+     * @return process, null if none is ready
+     */
+    public Process take() {
+        var stamp = stamp();
+        Spawned spawned;
+        Process process = null;
+        while (process == null && (spawned = ready.poll()) != null) {
+            if (spawned.stamp() == stamp && spawned.process().isAlive()) {
+                process = spawned.process();
+            } else {
+                spawned.process().destroyForcibly();
+            }
+        }
+        refill();
+        return process;
+    }
+
+    /**
+     * Kill all the processes ready, then start new ones in background, so that the next one taken is ready as well
+     */
+    public void invalidate() {
+        kill();
+        refill();
+    }
+
+    /**
+     * Kill all the processes ready
+     */
+    private void kill() {
+        Spawned spawned;
+        while ((spawned = ready.poll()) != null) {
+            spawned.process().destroyForcibly();
+        }
+    }
+
+    /**
+     * Start processes in background until there are enough
+     */
+    private void refill() {
+        while (ready.size() + starting.get() < size) {
+            starting.incrementAndGet();
+            starter.execute(() -> {
+                try {
+                    var stamp = stamp();
+                    var process = new ProcessBuilder(commands).directory(new File(dir)).start();
+                    ready.add(new Spawned(process, stamp));
+                } catch (IOException ignored) {
+                    // the executable is not there, processes are started when they are taken
+                } finally {
+                    starting.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Stamp of the files in command, changed when any of them is modified
+     *
+     * @return stamp
+     */
+    private long stamp() {
+        long stamp = 0;
+        for (var command : commands) {
+            var file = new File(command);
+            if (file.isFile()) {
+                stamp = stamp * 31 + file.lastModified();
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * A process started with the stamp of its files
+     */
+    private record Spawned(Process process, long stamp) {
+    }
+}
@@ -0,0 +1,111 @@
+package xktz.exam.environment;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Stream keeping the data in memory until it grows over a threshold, then moving it into a spill file.
+ * Writes and snapshots are synchronized, so that a snapshot could be taken while the stream is still being written.
+ *
+ * @author XKTZ
+ * @date 2022-12-26
+ */
+public class SpillingOutputStream extends OutputStream {
+
+    /**
+     * Size over which data is spilled
+     */
+    private final long threshold;
+
+    /**
+     * Folder of spill files
+     */
+    private final Path spillDirectory;
+
+    /**
+     * Data in memory, null once spilled
+     */
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+    /**
+     * Spill file, null if not spilled
+     */
+    private Path file;
+
+    /**
+     * Stream writing into spill file
+     */
+    private OutputStream spill;
+
+    /**
+     * Bytes written
+     */
+    private long size = 0;
+
+    /**
+     * Closed or not
+     */
+    private boolean closed = false;
+
+    /**
+     * @param threshold      size over which data is spilled
+     * @param spillDirectory folder of spill files
+     */
+    public SpillingOutputStream(long threshold, Path spillDirectory) {
+        this.threshold = threshold;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (memory != null && size + len > threshold) {
+            Files.createDirectories(spillDirectory);
+            file = Files.createTempFile(spillDirectory, "spill", ".out");
+            spill = new BufferedOutputStream(Files.newOutputStream(file));
+            memory.writeTo(spill);
+            memory = null;
+        }
+        if (memory != null) {
+            memory.write(b, off, len);
+        } else {
+            spill.write(b, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * Buffer of data written so far
+     *
+     * @return buffer
+     */
+    public synchronized OutputBuffer toBuffer() {
+        if (memory != null) {
+            return OutputBuffer.of(memory.toByteArray());
+        }
+        try {
+            if (!closed) {
+                spill.flush();
+            }
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        return OutputBuffer.ofSpilled(file, size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (spill != null && !closed) {
+            spill.close();
+        }
+        closed = true;
+    }
+}
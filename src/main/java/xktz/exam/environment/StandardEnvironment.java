@@ -1,13 +1,27 @@
 package xktz.exam.environment;
 
-import org.apache.commons.io.FileUtils;
 import xktz.exam.environment.system.SystemType;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Standard environment
@@ -22,8 +36,84 @@ public class StandardEnvironment implements Environment {
      */
     private String tmp;
 
+    /**
+     * Scratch folder of the current thread, so that processes running at the same time never share their files
+     */
+    private final ThreadLocal<String> scratch;
+
+    /**
+     * Name of scratch folder under temporary folder
+     */
+    private static final String SCRATCH_DIRECTORY = ".scratch";
+
+    /**
+     * Name of folder of spilled outputs under scratch folder
+     */
+    private static final String SPILL_DIRECTORY = "spill";
+
+    /**
+     * Default size over which an output is spilled into a file
+     */
+    public static final long DEFAULT_SPILL_THRESHOLD = 64L << 20;
+
+    /**
+     * Grace period waiting for the streams of a killed process to be closed
+     */
+    private static final long STREAM_GRACE = 1000;
+
+    /**
+     * Threads pumping data into & out of processes
+     */
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "process-pump");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Timer killing the processes exceeding their time limits
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "process-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * How the input & output of processes are passed
+     */
+    private final IOMode mode;
+
+    /**
+     * Pools of processes started ahead of time, by directory and command
+     */
+    private final Map<String, ProcessPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Size over which an output is spilled into a file
+     */
+    private final long spillThreshold;
+
+    /**
+     * Folder of spilled outputs
+     */
+    private final Path spill;
+
     public StandardEnvironment(String tmp) {
+        this(tmp, IOMode.PIPE);
+    }
+
+    public StandardEnvironment(String tmp, IOMode mode) {
+        this(tmp, mode, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    public StandardEnvironment(String tmp, IOMode mode, long spillThreshold) {
         this.tmp = tmp;
+        this.mode = mode;
+        this.spillThreshold = spillThreshold;
+        this.spill = Paths.get(tmp, SCRATCH_DIRECTORY, SPILL_DIRECTORY);
+        this.scratch = ThreadLocal.withInitial(() ->
+                tmp + File.separator + SCRATCH_DIRECTORY + File.separator + Thread.currentThread().getId());
     }
 
     @Override
@@ -33,32 +123,263 @@ public class StandardEnvironment implements Environment {
 
     @Override
     public SystemOutput executeCommand(String dir, long timeLimit, byte[] input, String... commands) {
+        if (mode == IOMode.FILE) {
+            return executeByFile(dir, timeLimit, input, process -> {
+            }, commands);
+        }
+        return executeByPipe(dir, timeLimit, input, commands);
+    }
+
+    /**
+     * Execute a command, writing the input into its stdin and reading its stdout & stderr on other threads
+     */
+    private SystemOutput executeByPipe(String dir, long timeLimit, byte[] input, String... commands) {
+        return join(executeCommandAsync(dir, timeLimit, input, commands));
+    }
+
+    @Override
+    public SystemOutput executeCommand(String dir, long timeLimit, InputStream input, String... commands) {
+        if (mode == IOMode.FILE) {
+            return Environment.super.executeCommand(dir, timeLimit, input, commands);
+        }
+        return join(executeByPipeAsync(dir, timeLimit, input, null, commands));
+    }
+
+    /**
+     * Wait for the result of an execution, throwing the exception it failed by
+     *
+     * @param execution execution
+     * @return result
+     */
+    private static SystemOutput join(CompletableFuture<SystemOutput> execution) {
+        try {
+            return execution.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new EnvironmentExecutionException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<SystemOutput> executeCommandAsync(String dir, long timeLimit, byte[] input,
+                                                              String... commands) {
+        if (mode == IOMode.FILE) {
+            return executeByFileAsync(dir, timeLimit, input, commands);
+        }
+        return executeByPipeAsync(dir, timeLimit, new ByteArrayInputStream(input), input, commands);
+    }
+
+    /**
+     * Execute a command by pipes, taking a started process if there is one ready
+     *
+     * @param dir       directory
+     * @param timeLimit time limit
+     * @param input     stream written into stdin
+     * @param original  input reported by timeout, null if input is streamed
+     * @param commands  commands
+     * @return future of result
+     */
+    private CompletableFuture<SystemOutput> executeByPipeAsync(String dir, long timeLimit, InputStream input,
+                                                               byte[] original, String... commands) {
+        var pool = pools.get(poolKey(dir, commands));
+        var process = pool == null ? null : pool.take();
+        if (process == null) {
+            try {
+                process = new ProcessBuilder(commands).directory(new File(dir)).start();
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(new EnvironmentExecutionException(e));
+            }
+        }
+        return attach(process, timeLimit, input, original);
+    }
+
+    /**
+     * Attach to a started process: deliver the input, drain the output, and enforce the time limit from now on
+     *
+     * @param process   process
+     * @param timeLimit time limit
+     * @param input     stream written into stdin
+     * @param original  input reported by timeout, null if input is streamed
+     * @return future of result
+     */
+    private CompletableFuture<SystemOutput> attach(Process process, long timeLimit, InputStream input,
+                                                   byte[] original) {
+        var stdout = new SpillingOutputStream(spillThreshold, spill);
+        var stderr = new SpillingOutputStream(spillThreshold, spill);
+        var draining = CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> pump(process.getInputStream(), stdout), PUMPS),
+                CompletableFuture.runAsync(() -> pump(process.getErrorStream(), stderr), PUMPS)
+        );
+        CompletableFuture.runAsync(() -> {
+            try (var stdin = process.getOutputStream()) {
+                input.transferTo(stdin);
+            } catch (IOException ignored) {
+                // the process exited without reading all the input
+            }
+        }, PUMPS);
+
+        var timedOut = new AtomicBoolean(false);
+        var timer = TIMER.schedule(() -> {
+            // killing the process closes its streams, the pumps keep what they have read
+            timedOut.set(true);
+            process.destroyForcibly();
+        }, timeLimit, TimeUnit.MILLISECONDS);
+
+        var result = new CompletableFuture<SystemOutput>();
+        process.onExit()
+                // the pipe may be kept open by a child of process, take what has been read after the grace period
+                .thenCompose(p -> draining.completeOnTimeout(null, STREAM_GRACE, TimeUnit.MILLISECONDS))
+                .whenComplete((ignored, e) -> {
+                    timer.cancel(false);
+                    if (e != null) {
+                        result.completeExceptionally(new EnvironmentExecutionException(e));
+                        return;
+                    }
+                    SystemOutput output;
+                    try {
+                        output = new SystemOutput(timedOut.get() ? -1 : process.exitValue(),
+                                stdout.toBuffer(), stderr.toBuffer());
+                    } catch (RuntimeException ex) {
+                        result.completeExceptionally(ex);
+                        return;
+                    }
+                    if (timedOut.get()) {
+                        result.completeExceptionally(new TimeoutException(timeLimit, original, output));
+                    } else {
+                        result.complete(output);
+                    }
+                });
+        // cancelling the result kills the process
+        result.whenComplete((output, e) -> {
+            if (result.isCancelled()) {
+                timer.cancel(false);
+                process.destroyForcibly();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Execute a command by files without blocking. The execution waits on a pump thread, which has its own scratch
+     * folder, and cancelling the result kills the process.
+     */
+    private CompletableFuture<SystemOutput> executeByFileAsync(String dir, long timeLimit, byte[] input,
+                                                               String... commands) {
+        var started = new CompletableFuture<Process>();
+        var result = CompletableFuture.supplyAsync(
+                () -> executeByFile(dir, timeLimit, input, started::complete, commands), PUMPS);
+        result.whenComplete((output, e) -> {
+            if (result.isCancelled()) {
+                // the process may not be started yet, it is killed once it is
+                started.thenAccept(Process::destroyForcibly);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Execute a command, with its stdin, stdout and stderr redirected into files in the scratch folder
+     *
+     * @param started called with the process once it is started
+     */
+    private SystemOutput executeByFile(String dir, long timeLimit, byte[] input, Consumer<Process> started,
+                                       String... commands) {
         boolean timeout = false;
         SystemOutput result = null;
-        try (var param = new SystemExecutionParameters(this.tmp, input)) {
+        try (var param = new SystemExecutionParameters(scratch.get(), input)) {
             var processBuilder = new ProcessBuilder(commands).directory(new File(dir));
             processBuilder.redirectInput(ProcessBuilder.Redirect.from(param.in));
             processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(param.out));
             processBuilder.redirectError(ProcessBuilder.Redirect.appendTo(param.err));
             var process = processBuilder.start();
+            started.accept(process);
             if (!process.waitFor(timeLimit, TimeUnit.MILLISECONDS)) {
                 process.destroyForcibly().waitFor();
                 timeout = true;
             } else {
                 process.destroyForcibly().waitFor();
-                var stdout = Files.readAllBytes(param.out.toPath());
-                var stderr = Files.readAllBytes(param.err.toPath());
-                result = new SystemOutput(process.exitValue(), stdout, stderr);
             }
+            result = new SystemOutput(timeout ? -1 : process.exitValue(), collect(param.out), collect(param.err));
         } catch (IOException | InterruptedException e) {
             throw new EnvironmentExecutionException(e);
         }
         if (timeout) {
-            throw new TimeoutException(timeLimit, input);
+            throw new TimeoutException(timeLimit, input, result);
         }
         return result;
     }
 
+    /**
+     * Collect an output file, moving it into spill folder if it is too large to be read into heap
+     *
+     * @param file output file
+     * @return output
+     */
+    private OutputBuffer collect(File file) throws IOException {
+        var size = Files.size(file.toPath());
+        if (size <= spillThreshold) {
+            return OutputBuffer.of(Files.readAllBytes(file.toPath()));
+        }
+        Files.createDirectories(spill);
+        var spilled = Files.createTempFile(spill, "spill", ".out");
+        Files.move(file.toPath(), spilled, StandardCopyOption.REPLACE_EXISTING);
+        return OutputBuffer.ofSpilled(spilled, size);
+    }
+
+    /**
+     * Pump a stream into a buffer until the stream ends or is closed
+     *
+     * @param in  stream
+     * @param out buffer
+     */
+    private static Void pump(InputStream in, SpillingOutputStream out) {
+        var buffer = new byte[8192];
+        int n;
+        try (in; out) {
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException ignored) {
+            // the stream is closed by killing the process
+        }
+        return null;
+    }
+
+    @Override
+    public Executor pumps() {
+        return PUMPS;
+    }
+
+    @Override
+    public void prespawn(String dir, int size, String... commands) {
+        if (mode == IOMode.PIPE && size > 0) {
+            pools.computeIfAbsent(poolKey(dir, commands), key -> new ProcessPool(dir, size, PUMPS, commands));
+        }
+    }
+
+    @Override
+    public void invalidatePrespawned() {
+        pools.values().forEach(ProcessPool::invalidate);
+    }
+
+    /**
+     * Key of pool for a command
+     */
+    private static String poolKey(String dir, String... commands) {
+        return dir + '\0' + String.join("\0", commands);
+    }
+
+    @Override
+    public Process start(String dir, String... commands) {
+        try {
+            return new ProcessBuilder(commands).directory(new File(dir)).start();
+        } catch (IOException e) {
+            throw new EnvironmentExecutionException(e);
+        }
+    }
+
     @Override
     public void executeInheritIOCommand(String... commands) {
         try {
@@ -70,6 +391,30 @@ public class StandardEnvironment implements Environment {
         }
     }
 
+    /**
+     * How the input & output of processes are passed
+     */
+    public enum IOMode {
+        /**
+         * By pipes of process
+         */
+        PIPE,
+        /**
+         * By files in scratch folder
+         */
+        FILE;
+
+        /**
+         * Get mode by its name in config, null is the pipe mode
+         *
+         * @param name name
+         * @return mode
+         */
+        public static IOMode of(Object name) {
+            return name == null ? PIPE : IOMode.valueOf(name.toString().toUpperCase());
+        }
+    }
+
     private static class SystemExecutionParameters implements AutoCloseable {
         public File in;
         public File out;
@@ -80,7 +425,8 @@ public class StandardEnvironment implements Environment {
             out = new File(tmp + File.separator + ".out");
             err = new File(tmp + File.separator + ".err");
             try {
-                Files.write(in.toPath(), input, StandardOpenOption.CREATE);
+                Files.createDirectories(in.toPath().getParent());
+                Files.write(in.toPath(), input, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
             } catch (IOException e) {
                 throw new EnvironmentExecutionException(e);
             }
@@ -88,9 +434,10 @@ public class StandardEnvironment implements Environment {
 
         @Override
         public void close() throws IOException {
-            FileUtils.delete(in);
-            FileUtils.delete(out);
-            FileUtils.delete(err);
+            // output moved into spill folder is not there anymore
+            Files.deleteIfExists(in.toPath());
+            Files.deleteIfExists(out.toPath());
+            Files.deleteIfExists(err.toPath());
         }
     }
 }
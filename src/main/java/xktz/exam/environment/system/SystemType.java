@@ -11,17 +11,16 @@ import org.apache.commons.lang3.SystemUtils;
 public interface SystemType {
 
     /**
-     * Detect a system type by built-in method
+     * Detect a system type by built-in method, it is detected once and kept
      *
      * @return the system type
      */
     static SystemType detectSystemType() {
-        if (SystemUtils.IS_OS_WINDOWS) {
-            return BasicSystemTypes.WINDOWS;
-        } else if (SystemUtils.IS_OS_LINUX) {
-            return BasicSystemTypes.LINUX;
+        var type = Detected.TYPE;
+        if (type == null) {
+            throw new SystemTypeNotSupportedException();
         }
-        throw new SystemTypeNotSupportedException();
+        return type;
     }
 
     /**
@@ -40,6 +39,17 @@ public interface SystemType {
         }
     }
 
+    /**
+     * System type of the running JVM, null if it is not supported
+     */
+    final class Detected {
+        private static final SystemType TYPE = SystemUtils.IS_OS_WINDOWS ? BasicSystemTypes.WINDOWS
+                : SystemUtils.IS_OS_LINUX ? BasicSystemTypes.LINUX : null;
+
+        private Detected() {
+        }
+    }
+
     /**
      * Exception that this system type is not supported for the application
      */
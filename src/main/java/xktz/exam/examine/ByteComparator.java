@@ -0,0 +1,566 @@
+package xktz.exam.examine;
+
+import xktz.exam.environment.Environment;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Comparison of two outputs byte by byte in a single pass, without decoding them or allocating for each line or token.
+ * Outputs are read as UTF-8, where every whitespace is either a single byte or one of a few 3 bytes sequences.
+ *
+ * @author XKTZ
+ * @date 2022-12-27
+ */
+public final class ByteComparator {
+
+    /**
+     * Max bytes of a line or token quoted in the message of mismatch
+     */
+    private static final int QUOTE_LIMIT = 64;
+
+    private ByteComparator() {
+    }
+
+    /**
+     * Compare two outputs line by line, ignoring the spaces at both ends of each line.
+     * Lines are split as {@link String#split(String)} by "\n", and trimmed as {@link String#trim()}.
+     *
+     * @param output   output
+     * @param expected expected output
+     * @return first mismatch, null if outputs are same
+     */
+    public static Mismatch trim(ByteBuffer output, ByteBuffer expected) {
+        return trim(LineCursor.of(output), LineCursor.of(expected), 1, 0);
+    }
+
+    /**
+     * Compare the lines of two cursors, ignoring the spaces at both ends of each line
+     *
+     * @param x         lines of output
+     * @param y         lines of expected output
+     * @param firstLine number of first line in output
+     * @param base      offset of the data of x in output
+     * @return first mismatch, null if lines are same
+     */
+    static Mismatch trim(LineCursor x, LineCursor y, long firstLine, long base) {
+        var output = x.data;
+        var expected = y.data;
+        var line = firstLine;
+        while (true) {
+            var hasX = x.next();
+            var hasY = y.next();
+            if (!hasX && !hasY) {
+                return null;
+            }
+            if (hasX != hasY) {
+                var offset = hasX ? x.start : x.to;
+                return new Mismatch(line, 1, base + offset, "number of lines not same");
+            }
+            var length = Math.min(x.trimEnd - x.trimStart, y.trimEnd - y.trimStart);
+            var k = 0;
+            while (k < length && output.get(x.trimStart + k) == expected.get(y.trimStart + k)) {
+                k++;
+            }
+            if (k < length || x.trimEnd - x.trimStart != y.trimEnd - y.trimStart) {
+                return new Mismatch(line, x.trimStart + k - x.start + 1, base + x.trimStart + k,
+                        "'%s' != '%s'".formatted(quote(output, x.trimStart, x.trimEnd),
+                                quote(expected, y.trimStart, y.trimEnd)));
+            }
+            line++;
+        }
+    }
+
+    /**
+     * Compare two outputs token by token, tokens being separated by whitespaces as {@link java.util.Scanner} does.
+     *
+     * @param output   output
+     * @param expected expected output
+     * @return first mismatch, null if outputs are same
+     */
+    public static Mismatch token(ByteBuffer output, ByteBuffer expected) {
+        return tokens(output, expected, ByteComparator::matchBytes);
+    }
+
+    /**
+     * Compare two outputs token by token, tokens which are both numbers being same if they are close enough:
+     * absolute or relative difference not over epsilon
+     *
+     * @param output   output
+     * @param expected expected output
+     * @param epsilon  tolerance
+     * @return first mismatch, null if outputs are same
+     */
+    public static Mismatch floating(ByteBuffer output, ByteBuffer expected, double epsilon) {
+        return tokens(output, expected, (x, fromX, toX, y, fromY, toY) -> {
+            var a = parseNumber(x, fromX, toX);
+            var b = parseNumber(y, fromY, toY);
+            if (Double.isNaN(a) || Double.isNaN(b)) {
+                return matchBytes(x, fromX, toX, y, fromY, toY);
+            }
+            var difference = Math.abs(a - b);
+            return difference <= epsilon || difference <= epsilon * Math.abs(b) ? -1 : 0;
+        });
+    }
+
+    /**
+     * Compare the tokens of two outputs
+     *
+     * @param output   output
+     * @param expected expected output
+     * @param matcher  matcher of a pair of tokens
+     * @return first mismatch, null if outputs are same
+     */
+    private static Mismatch tokens(ByteBuffer output, ByteBuffer expected, TokenMatcher matcher) {
+        int i = 0, j = 0;
+        int la = output.limit(), lb = expected.limit();
+        long line = 1;
+        int lineStart = 0;
+        while (true) {
+            int w;
+            while (i < la && (w = whitespace(output, i, la)) > 0) {
+                if (output.get(i) == '\n') {
+                    line++;
+                    lineStart = i + 1;
+                }
+                i += w;
+            }
+            while (j < lb && (w = whitespace(expected, j, lb)) > 0) {
+                j += w;
+            }
+            if (i == la && j == lb) {
+                return null;
+            }
+            if (j == lb) {
+                return new Mismatch(line, i - lineStart + 1, i, "input too long");
+            }
+            if (i == la) {
+                return new Mismatch(line, i - lineStart + 1, i, "input too short");
+            }
+            int endX = i, endY = j;
+            while (endX < la && whitespace(output, endX, la) == 0) {
+                endX++;
+            }
+            while (endY < lb && whitespace(expected, endY, lb) == 0) {
+                endY++;
+            }
+            var k = matcher.match(output, i, endX, expected, j, endY);
+            if (k >= 0) {
+                return new Mismatch(line, i + k - lineStart + 1, i + k,
+                        "%s is not %s".formatted(quote(output, i, endX), quote(expected, j, endY)));
+            }
+            i = endX;
+            j = endY;
+        }
+    }
+
+    /**
+     * Match two ranges by their bytes
+     *
+     * @return first different byte in range of x, -1 if they are same
+     */
+    private static int matchBytes(ByteBuffer x, int fromX, int toX, ByteBuffer y, int fromY, int toY) {
+        var length = Math.min(toX - fromX, toY - fromY);
+        var k = 0;
+        while (k < length && x.get(fromX + k) == y.get(fromY + k)) {
+            k++;
+        }
+        return k == length && toX - fromX == toY - fromY ? -1 : k;
+    }
+
+    /**
+     * Parse a decimal number, with optional sign, fraction and exponent
+     *
+     * @param data data
+     * @param from start of number
+     * @param to   end of number
+     * @return number, NaN if it is not a number
+     */
+    static double parseNumber(ByteBuffer data, int from, int to) {
+        var i = from;
+        var negative = false;
+        if (i < to && (data.get(i) == '-' || data.get(i) == '+')) {
+            negative = data.get(i++) == '-';
+        }
+        long mantissa = 0;
+        int scale = 0, digits = 0;
+        var point = false;
+        for (; i < to; i++) {
+            var c = data.get(i);
+            if (c == '.' && !point) {
+                point = true;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+                // digits beyond the precision of long only move the decimal point
+                if (mantissa < Long.MAX_VALUE / 10 - 9) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (point) {
+                        scale--;
+                    }
+                } else if (!point) {
+                    scale++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (i < to && (data.get(i) == 'e' || data.get(i) == 'E')) {
+            i++;
+            var negativeExponent = false;
+            if (i < to && (data.get(i) == '-' || data.get(i) == '+')) {
+                negativeExponent = data.get(i++) == '-';
+            }
+            if (i == to) {
+                return Double.NaN;
+            }
+            var exponent = 0;
+            for (; i < to; i++) {
+                var c = data.get(i);
+                if (c < '0' || c > '9') {
+                    return Double.NaN;
+                }
+                exponent = Math.min(exponent * 10 + (c - '0'), 100000);
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != to) {
+            return Double.NaN;
+        }
+        var value = scale >= 0 ? mantissa * Math.pow(10, scale) : mantissa / Math.pow(10, -scale);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Compare two outputs as multisets of lines, lines being split and trimmed as
+     * {@link #trim(ByteBuffer, ByteBuffer)} does, but in any order
+     *
+     * @param output   output
+     * @param expected expected output
+     * @return first line of output not matched, or mismatch at end of output if a line of expected output is missing
+     */
+    public static Mismatch unordered(ByteBuffer output, ByteBuffer expected) {
+        var table = new LineTable(expected);
+        var y = LineCursor.of(expected);
+        while (y.next()) {
+            table.add(y.trimStart, y.trimEnd);
+        }
+        var x = LineCursor.of(output);
+        long line = 1;
+        while (x.next()) {
+            if (!table.remove(output, x.trimStart, x.trimEnd)) {
+                return new Mismatch(line, 1, x.start,
+                        "'%s' is not expected".formatted(quote(output, x.trimStart, x.trimEnd)));
+            }
+            line++;
+        }
+        var missing = table.remaining();
+        if (missing >= 0) {
+            return new Mismatch(line, 1, x.to, "'%s' is missing".formatted(quote(expected, missing,
+                    table.endOf(missing))));
+        }
+        return null;
+    }
+
+    /**
+     * Length of whitespace starting at a position, as {@link Character#isWhitespace(int)} in UTF-8
+     *
+     * @param data     data
+     * @param position position
+     * @param limit    end of data
+     * @return length of whitespace, 0 if it is not a whitespace
+     */
+    static int whitespace(ByteBuffer data, int position, int limit) {
+        int c = data.get(position) & 0xff;
+        if (c <= 0x20) {
+            return c == 0x20 || (c >= 0x09 && c <= 0x0d) || (c >= 0x1c && c <= 0x1f) ? 1 : 0;
+        }
+        if (c < 0xe1 || c > 0xe3 || position + 2 >= limit) {
+            return 0;
+        }
+        int c1 = data.get(position + 1) & 0xff, c2 = data.get(position + 2) & 0xff;
+        var space = switch (c) {
+            // U+1680
+            case 0xe1 -> c1 == 0x9a && c2 == 0x80;
+            // U+2000 - U+2006, U+2008 - U+200A, U+2028, U+2029, U+205F
+            case 0xe2 -> c1 == 0x80 && (c2 >= 0x80 && c2 <= 0x8a && c2 != 0x87 || c2 == 0xa8 || c2 == 0xa9)
+                    || c1 == 0x81 && c2 == 0x9f;
+            // U+3000
+            default -> c1 == 0x80 && c2 == 0x80;
+        };
+        return space ? 3 : 0;
+    }
+
+    /**
+     * Quote a range of data in message, cut if it is too long
+     */
+    private static String quote(ByteBuffer data, int start, int end) {
+        var length = Math.min(end - start, QUOTE_LIMIT);
+        var quoted = Environment.SYSTEM_CHARSET.decode(data.slice(start, length)).toString();
+        return length < end - start ? quoted + "..." : quoted;
+    }
+
+    /**
+     * End of data without the trailing line breaks, which are the empty lines dropped by split
+     *
+     * @param data data
+     * @return end of content
+     */
+    static int contentEnd(ByteBuffer data) {
+        var end = data.limit();
+        while (end > 0 && data.get(end - 1) == '\n') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Cursor on the lines in a range of data. Every line ends by a line break, except the last one in range.
+     */
+    static class LineCursor {
+        private final ByteBuffer data;
+
+        /**
+         * End of range
+         */
+        private final int to;
+
+        /**
+         * Start of next line
+         */
+        private int next;
+
+        /**
+         * The range is a single empty line
+         */
+        private boolean empty;
+
+        /**
+         * Current line
+         */
+        private int start, trimStart, trimEnd;
+
+        /**
+         * @param data data
+         * @param from start of range
+         * @param to   end of range, the range has no line if it is empty
+         */
+        LineCursor(ByteBuffer data, int from, int to) {
+            this.data = data;
+            this.next = from;
+            this.to = to;
+        }
+
+        /**
+         * Cursor on the lines of whole data, split as {@link String#split(String)} by "\n"
+         *
+         * @param data data
+         * @return cursor
+         */
+        static LineCursor of(ByteBuffer data) {
+            var cursor = new LineCursor(data, 0, contentEnd(data));
+            // empty data is a single empty line, while data of only line breaks has no line
+            cursor.empty = data.limit() == 0;
+            return cursor;
+        }
+
+        /**
+         * Move to next line
+         *
+         * @return there is a line or not
+         */
+        private boolean next() {
+            if (empty) {
+                empty = false;
+                start = trimStart = trimEnd = next;
+                return true;
+            }
+            if (next >= to) {
+                return false;
+            }
+            start = next;
+            var end = start;
+            while (end < to && data.get(end) != '\n') {
+                end++;
+            }
+            next = end + 1;
+            trimStart = start;
+            trimEnd = end;
+            while (trimStart < trimEnd && (data.get(trimStart) & 0xff) <= ' ') {
+                trimStart++;
+            }
+            while (trimEnd > trimStart && (data.get(trimEnd - 1) & 0xff) <= ' ') {
+                trimEnd--;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Matcher of a pair of tokens
+     */
+    @FunctionalInterface
+    private interface TokenMatcher {
+        /**
+         * @return first different byte in token x, -1 if tokens are same
+         */
+        int match(ByteBuffer x, int fromX, int toX, ByteBuffer y, int fromY, int toY);
+    }
+
+    /**
+     * Multiset of the trimmed lines of expected output, in an open addressing table keyed by hash of line.
+     * A line is kept by its position in expected output, so that nothing is copied. The table grows with the distinct
+     * lines, so that it stays in cache when lines repeat.
+     */
+    private static class LineTable {
+
+        /**
+         * Ints of an entry: start, end, and occurrences not matched yet
+         */
+        private static final int ENTRY = 3;
+
+        private final ByteBuffer data;
+
+        private long[] hashes;
+
+        private int[] entries;
+
+        private int mask;
+
+        private int size = 0;
+
+        /**
+         * @param data expected output
+         */
+        private LineTable(ByteBuffer data) {
+            this.data = data;
+            allocate(1 << 10);
+        }
+
+        private void add(int start, int end) {
+            var hash = hash(data, start, end);
+            var slot = find(hash, data, start, end);
+            if (entries[slot * ENTRY] < 0) {
+                hashes[slot] = hash;
+                entries[slot * ENTRY] = start;
+                entries[slot * ENTRY + 1] = end;
+                if (++size * 2 > mask) {
+                    grow();
+                    slot = find(hash, data, start, end);
+                }
+            }
+            entries[slot * ENTRY + 2]++;
+        }
+
+        /**
+         * Take an occurrence of a line
+         *
+         * @return the line is there or not
+         */
+        private boolean remove(ByteBuffer line, int start, int end) {
+            var slot = find(hash(line, start, end), line, start, end);
+            if (entries[slot * ENTRY] < 0 || entries[slot * ENTRY + 2] == 0) {
+                return false;
+            }
+            entries[slot * ENTRY + 2]--;
+            return true;
+        }
+
+        /**
+         * Any line not matched
+         *
+         * @return start of first such line, -1 if all lines are matched
+         */
+        private int remaining() {
+            var first = -1;
+            for (int slot = 0; slot <= mask; slot++) {
+                var start = entries[slot * ENTRY];
+                if (entries[slot * ENTRY + 2] > 0 && (first < 0 || start < first)) {
+                    first = start;
+                }
+            }
+            return first;
+        }
+
+        /**
+         * End of a line in table by its start
+         */
+        private int endOf(int start) {
+            for (int slot = 0; slot <= mask; slot++) {
+                if (entries[slot * ENTRY] == start) {
+                    return entries[slot * ENTRY + 1];
+                }
+            }
+            return start;
+        }
+
+        /**
+         * Slot of a line, or the empty slot it should be put in
+         */
+        private int find(long hash, ByteBuffer line, int start, int end) {
+            // FNV mixes the low bits poorly, spread them before taking the slot
+            var mixed = (hash ^ hash >>> 33) * 0xff51afd7ed558ccdL;
+            var slot = (int) (mixed ^ mixed >>> 33) & mask;
+            int at;
+            while ((at = entries[slot * ENTRY]) >= 0 && (hashes[slot] != hash
+                    || matchBytes(data, at, entries[slot * ENTRY + 1], line, start, end) >= 0)) {
+                slot = slot + 1 & mask;
+            }
+            return slot;
+        }
+
+        private void allocate(int capacity) {
+            hashes = new long[capacity];
+            entries = new int[capacity * ENTRY];
+            mask = capacity - 1;
+            for (int slot = 0; slot < capacity; slot++) {
+                entries[slot * ENTRY] = -1;
+            }
+        }
+
+        /**
+         * Double the slots, at most half of them are used
+         */
+        private void grow() {
+            var oldHashes = hashes;
+            var oldEntries = entries;
+            allocate(oldHashes.length * 2);
+            for (int slot = 0; slot < oldHashes.length; slot++) {
+                var start = oldEntries[slot * ENTRY];
+                if (start >= 0) {
+                    var end = oldEntries[slot * ENTRY + 1];
+                    var target = find(oldHashes[slot], data, start, end);
+                    hashes[target] = oldHashes[slot];
+                    System.arraycopy(oldEntries, slot * ENTRY, entries, target * ENTRY, ENTRY);
+                }
+            }
+        }
+
+        /**
+         * FNV-1a hash of a range
+         */
+        private static long hash(ByteBuffer data, int start, int end) {
+            var hash = 0xcbf29ce484222325L;
+            for (int i = start; i < end; i++) {
+                hash = (hash ^ (data.get(i) & 0xff)) * 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * First mismatch of outputs
+     *
+     * @param line   line in output, from 1
+     * @param column column in bytes, from 1
+     * @param offset offset in bytes, from 0
+     * @param reason reason
+     */
+    public record Mismatch(long line, long column, long offset, String reason) {
+        @Override
+        public String toString() {
+            return "%s at line %d, column %d (byte %d)".formatted(reason, line, column, offset);
+        }
+    }
+}
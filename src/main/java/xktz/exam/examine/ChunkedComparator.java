@@ -0,0 +1,240 @@
+package xktz.exam.examine;
+
+import xktz.exam.environment.OutputBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Comparison of large outputs split into chunks, the chunks being mapped and compared on the common fork join pool.
+ * Small outputs are compared by {@link ByteComparator} in the calling thread.
+ *
+ * @author XKTZ
+ * @date 2022-12-28
+ */
+public final class ChunkedComparator {
+
+    /**
+     * Bytes in a chunk
+     */
+    private static final int CHUNK = 1 << 24;
+
+    /**
+     * Size from which the outputs are compared by chunks
+     */
+    private static final long PARALLEL_THRESHOLD = 2L * CHUNK;
+
+    /**
+     * There are other cores to compare chunks on
+     */
+    private static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * Bytes mapped at a time when searching a line break
+     */
+    private static final int WINDOW = 1 << 20;
+
+    private ChunkedComparator() {
+    }
+
+    /**
+     * Compare two outputs exact by their values
+     *
+     * @param output   output
+     * @param expected expected output
+     * @return offset of first different byte, -1 if outputs are same
+     */
+    public static long strict(OutputBuffer output, OutputBuffer expected) {
+        var common = Math.min(output.size(), expected.size());
+        var earliest = new AtomicLong(Long.MAX_VALUE);
+        var chunks = (int) ((common + CHUNK - 1) / CHUNK);
+        var chunked = IntStream.range(0, chunks);
+        if (common >= PARALLEL_THRESHOLD && PARALLEL) {
+            chunked = chunked.parallel();
+        }
+        chunked.forEach(chunk -> {
+            var start = (long) chunk * CHUNK;
+            // chunks after a found mismatch could not give an earlier one
+            if (start >= earliest.get()) {
+                return;
+            }
+            var length = (int) Math.min(CHUNK, common - start);
+            var mismatch = output.map(start, length).mismatch(expected.map(start, length));
+            if (mismatch >= 0) {
+                earliest.accumulateAndGet(start + mismatch, Math::min);
+            }
+        });
+        if (earliest.get() != Long.MAX_VALUE) {
+            return earliest.get();
+        }
+        return output.size() == expected.size() ? -1 : common;
+    }
+
+    /**
+     * Compare two outputs line by line, ignoring the spaces at both ends of each line, as
+     * {@link ByteComparator#trim(ByteBuffer, ByteBuffer)} does.
+     * The output is split into chunks of whole lines, then each chunk is compared with the same lines of expected
+     * output, found by counting the line breaks of expected output in parallel.
+     *
+     * @param output   output
+     * @param expected expected output
+     * @return first mismatch, null if outputs are same
+     */
+    public static ByteComparator.Mismatch trim(OutputBuffer output, OutputBuffer expected) {
+        var endX = contentEnd(output);
+        var endY = contentEnd(expected);
+        var size = Math.max(output.size(), expected.size());
+        if (size < PARALLEL_THRESHOLD || !PARALLEL && size <= Integer.MAX_VALUE || endX == 0 || endY == 0) {
+            // counting the lines first only pays off with other cores, unless the outputs could not be mapped at once,
+            // and an output without content is decided by the first lines of other one
+            return ByteComparator.trim(mapPrefix(output), mapPrefix(expected));
+        }
+
+        // chunks of output, each of them starting at a line
+        var starts = new long[(int) (endX / CHUNK) + 2];
+        var chunks = 0;
+        starts[chunks++] = 0;
+        for (long target = CHUNK; target < endX; target = starts[chunks - 1] + CHUNK) {
+            var lineBreak = find(output, target, endX);
+            if (lineBreak < 0) {
+                break;
+            }
+            starts[chunks++] = lineBreak + 1;
+        }
+        starts[chunks] = endX;
+        var segments = chunks;
+
+        // first line of each chunk of output
+        var lines = new long[segments + 1];
+        IntStream.range(0, segments).parallel()
+                .forEach(i -> lines[i + 1] = countLineBreaks(output, starts[i], starts[i + 1]));
+        for (int i = 1; i <= segments; i++) {
+            lines[i] += lines[i - 1];
+        }
+
+        // line breaks in each fixed chunk of expected output
+        var blocks = (int) ((endY + CHUNK - 1) / CHUNK);
+        var breaks = new long[blocks + 1];
+        IntStream.range(0, blocks).parallel()
+                .forEach(i -> breaks[i + 1] = countLineBreaks(expected, (long) i * CHUNK,
+                        Math.min(endY, (long) (i + 1) * CHUNK)));
+        for (int i = 1; i <= blocks; i++) {
+            breaks[i] += breaks[i - 1];
+        }
+
+        // start of same lines in expected output, its end if it has less lines
+        var startsY = new long[segments + 1];
+        IntStream.range(1, segments).parallel()
+                .forEach(i -> startsY[i] = lineStart(expected, breaks, lines[i], endY));
+        startsY[segments] = endY;
+
+        var earliest = new AtomicInteger(Integer.MAX_VALUE);
+        var mismatches = new ByteComparator.Mismatch[segments];
+        IntStream.range(0, segments).parallel().forEach(i -> {
+            if (i > earliest.get()) {
+                return;
+            }
+            var x = mapRange(output, starts[i], starts[i + 1]);
+            var y = mapRange(expected, startsY[i], startsY[i + 1]);
+            var mismatch = ByteComparator.trim(new ByteComparator.LineCursor(x, 0, x.limit()),
+                    new ByteComparator.LineCursor(y, 0, y.limit()), lines[i] + 1, starts[i]);
+            if (mismatch != null) {
+                mismatches[i] = mismatch;
+                earliest.accumulateAndGet(i, Math::min);
+            }
+        });
+        return earliest.get() == Integer.MAX_VALUE ? null : mismatches[earliest.get()];
+    }
+
+    /**
+     * End of output without the trailing line breaks
+     */
+    private static long contentEnd(OutputBuffer data) {
+        var end = data.size();
+        while (end > 0) {
+            var length = (int) Math.min(WINDOW, end);
+            var window = data.map(end - length, length);
+            var content = ByteComparator.contentEnd(window);
+            if (content > 0) {
+                return end - length + content;
+            }
+            end -= length;
+        }
+        return 0;
+    }
+
+    /**
+     * Find the first line break in a range
+     *
+     * @return position of line break, -1 if there is none
+     */
+    private static long find(OutputBuffer data, long from, long to) {
+        for (var start = from; start < to; start += WINDOW) {
+            var length = (int) Math.min(WINDOW, to - start);
+            var window = data.map(start, length);
+            for (int i = 0; i < length; i++) {
+                if (window.get(i) == '\n') {
+                    return start + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Count the line breaks in a range
+     */
+    private static long countLineBreaks(OutputBuffer data, long from, long to) {
+        var window = mapRange(data, from, to);
+        long count = 0;
+        for (int i = 0, n = window.limit(); i < n; i++) {
+            if (window.get(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Start of a line, by the counts of line breaks before each fixed chunk
+     *
+     * @param data   data
+     * @param breaks line breaks before each chunk
+     * @param line   line, from 0
+     * @param end    end of content
+     * @return start of line, end of content if there is no such line
+     */
+    private static long lineStart(OutputBuffer data, long[] breaks, long line, long end) {
+        if (line > breaks[breaks.length - 1]) {
+            return end;
+        }
+        var block = 0;
+        while (breaks[block + 1] < line) {
+            block++;
+        }
+        var remaining = line - breaks[block];
+        var window = mapRange(data, (long) block * CHUNK, end);
+        for (int i = 0, n = window.limit(); i < n; i++) {
+            if (window.get(i) == '\n' && --remaining == 0) {
+                return (long) block * CHUNK + i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Map a range, cut at the max size of a mapping
+     */
+    private static ByteBuffer mapRange(OutputBuffer data, long from, long to) {
+        return data.map(from, (int) Math.min(Integer.MAX_VALUE, to - from));
+    }
+
+    /**
+     * Map the output from its start, cut at the max size of a mapping
+     */
+    private static ByteBuffer mapPrefix(OutputBuffer data) {
+        return mapRange(data, 0, data.size());
+    }
+}
@@ -1,10 +1,16 @@
 package xktz.exam.examine;
 
 import xktz.exam.environment.Environment;
+import xktz.exam.environment.OutputBuffer;
 import xktz.exam.lang.LanguageRuntime;
 
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * Examine other's code by output either 0 or 1 in the Language Runtime's output
@@ -28,20 +34,66 @@ public class CodeExaminer implements Examiner {
      */
     private LanguageRuntime lang;
 
+    /**
+     * Checker staying alive, null if the checker runs once for each examine
+     */
+    private final PersistentChecker persistent;
+
     /**
      * @param lang language runtime
      */
     public CodeExaminer(LanguageRuntime lang) {
+        this(lang, false);
+    }
+
+    /**
+     * @param lang       language runtime
+     * @param persistent keep the checker alive for all the examines or not
+     */
+    public CodeExaminer(LanguageRuntime lang, boolean persistent) {
         this.lang = lang;
+        this.persistent = persistent ? new PersistentChecker(lang) : null;
     }
 
     @Override
-    public ExamineResult examine(byte[] input, byte[] output) {
-        byte[] in = Arrays.copyOf(input, input.length + output.length);
+    public ExamineResult examine(OutputBuffer input, OutputBuffer output) {
+        if (persistent != null) {
+            return examinePersistent(() -> persistent.check(input, output));
+        }
+        if (!input.inMemory() || !output.inMemory()) {
+            try (var in = new SequenceInputStream(input.open(), output.open())) {
+                return verdictOf(lang.run(in));
+            } catch (IOException e) {
+                throw new Environment.EnvironmentExecutionException(e);
+            }
+        }
+        var inputBytes = input.bytes();
+        var outputBytes = output.bytes();
+        byte[] in = Arrays.copyOf(inputBytes, inputBytes.length + outputBytes.length);
 
-        System.arraycopy(output, 0, in, input.length, output.length);
-        var result = lang.run(in);
+        System.arraycopy(outputBytes, 0, in, inputBytes.length, outputBytes.length);
+        return verdictOf(lang.run(in));
+    }
+
+    @Override
+    public ExamineResult examine(Path input, OutputBuffer output) {
+        if (persistent != null) {
+            return examinePersistent(() -> persistent.check(input, output));
+        }
+        try (var in = new SequenceInputStream(Files.newInputStream(input), output.open())) {
+            return verdictOf(lang.run(in));
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+    }
 
+    /**
+     * Result by the output of checker
+     *
+     * @param result output of checker
+     * @return result
+     */
+    private ExamineResult verdictOf(Environment.SystemOutput result) {
         var stdout = result.stdout();
         var stderr = result.stderr();
 
@@ -61,6 +113,26 @@ public class CodeExaminer implements Examiner {
         }
     }
 
+    /**
+     * Examine by the checker staying alive
+     *
+     * @param check check by the checker
+     * @return result
+     */
+    private ExamineResult examinePersistent(Supplier<PersistentChecker.Verdict> check) {
+        PersistentChecker.Verdict verdict;
+        try {
+            verdict = check.get();
+        } catch (PersistentChecker.CheckerException e) {
+            return new ExamineResult(Examiner.ERROR, e.getMessage(), Optional.empty());
+        }
+        if (verdict.verdict().equals(SUCCESS)) {
+            return new ExamineResult(Examiner.SUCCESS, verdict.message(), Optional.empty());
+        } else {
+            return new ExamineResult(Examiner.FAILED, verdict.message(), Optional.empty());
+        }
+    }
+
     @Override
     public Environment.SystemOutput build() {
         return lang.compile();
@@ -1,11 +1,15 @@
 package xktz.exam.examine;
 
 import xktz.exam.environment.Environment;
+import xktz.exam.environment.OutputBuffer;
 import xktz.exam.lang.LanguageRuntime;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Optional;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Examine a code by others' code's output
@@ -20,6 +24,12 @@ public class ComparisonExaminer implements Examiner {
 
     private static final String FAILED = "failed";
 
+    /**
+     * Default tolerance of float mode
+     */
+    public static final double DEFAULT_EPSILON = 1e-6;
+
+
     /**
      * Language runtime for the examiner
      */
@@ -30,70 +40,218 @@ public class ComparisonExaminer implements Examiner {
      */
     private final ExaminerMode mode;
 
+    /**
+     * Absolute or relative tolerance of numbers in float mode
+     */
+    private final double epsilon;
+
+    /**
+     * Start the correct code once the input is there, at the same time as the project, or not
+     */
+    private final boolean speculative;
+
+    /**
+     * Outputs of correct code stored by input, null if they are not stored
+     */
+    private final ReferenceCache cache;
+
+    /**
+     * Fingerprint of correct code as it is built, null until it is used
+     */
+    private volatile String fingerprint;
+
     public ComparisonExaminer(ExaminerMode mode, LanguageRuntime lang) {
+        this(mode, lang, DEFAULT_EPSILON, true, null);
+    }
+
+    public ComparisonExaminer(ExaminerMode mode, LanguageRuntime lang, double epsilon, boolean speculative,
+                              ReferenceCache cache) {
         this.lang = lang;
         this.mode = mode;
+        this.epsilon = epsilon;
+        this.speculative = speculative;
+        this.cache = cache;
+    }
+
+    @Override
+    public ExamineResult examine(OutputBuffer input, OutputBuffer output) {
+        if (cache == null) {
+            return compare(lang.run(input), output);
+        }
+        var key = cache.key(fingerprint(), input);
+        return compare(cached(key).orElseGet(() -> store(key, lang.run(input))), output);
+    }
+
+    @Override
+    public ExamineResult examine(Path input, OutputBuffer output) {
+        var key = cache == null ? null : cache.key(fingerprint(), input);
+        var stored = key == null ? Optional.<Environment.SystemOutput>empty() : cached(key);
+        if (stored.isPresent()) {
+            return compare(stored.get(), output);
+        }
+        try (var in = Files.newInputStream(input)) {
+            return compare(store(key, lang.run(in)), output);
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
     }
 
     @Override
-    public ExamineResult examine(byte[] input, byte[] output) {
-        var correctResult = lang.run(input);
+    public Speculation begin(OutputBuffer input) {
+        var key = cache == null ? null : cache.key(fingerprint(), input);
+        var stored = key == null ? Optional.<Environment.SystemOutput>empty() : cached(key);
+        if (stored.isPresent()) {
+            // the correct code is not run at all
+            return new Speculation() {
+                @Override
+                public ExamineResult examine(OutputBuffer output) {
+                    return compare(stored.get(), output);
+                }
+
+                @Override
+                public void cancel() {
+                }
+            };
+        }
+        if (!speculative || !input.inMemory()) {
+            return Examiner.super.begin(input);
+        }
+        var reference = lang.runAsync(input.bytes());
+        return new Speculation() {
+            @Override
+            public ExamineResult examine(OutputBuffer output) {
+                return compare(store(key, join(reference)), output);
+            }
+
+            @Override
+            public void cancel() {
+                // cancelling kills the correct code, a result already there is dropped
+                if (!reference.cancel(true)) {
+                    reference.thenAccept(Environment.SystemOutput::release);
+                }
+            }
+        };
+    }
+
+    /**
+     * Fingerprint of correct code, taken once it is built
+     *
+     * @return fingerprint
+     */
+    private String fingerprint() {
+        var current = fingerprint;
+        if (current == null) {
+            current = lang.fingerprint();
+            fingerprint = current;
+        }
+        return current;
+    }
+
+    /**
+     * Output of correct code stored in cache
+     *
+     * @param key key of input
+     * @return result of correct code, empty if it is not stored
+     */
+    private Optional<Environment.SystemOutput> cached(String key) {
+        return cache.get(key).map(out -> new Environment.SystemOutput(Environment.EXIT_SUCCESS, out, OutputBuffer.EMPTY));
+    }
+
+    /**
+     * Store the output of correct code into cache if it succeeded
+     *
+     * @param key    key of input, null if outputs are not stored
+     * @param result result of correct code
+     * @return result
+     */
+    private Environment.SystemOutput store(String key, Environment.SystemOutput result) {
+        if (key != null && result.exitCode() == Environment.EXIT_SUCCESS) {
+            cache.put(key, result.out());
+        }
+        return result;
+    }
+
+    /**
+     * Wait for the correct code, throwing the exception it failed by
+     *
+     * @param reference running correct code
+     * @return result of correct code
+     */
+    private static Environment.SystemOutput join(CompletableFuture<Environment.SystemOutput> reference) {
+        try {
+            return reference.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new Environment.EnvironmentExecutionException(e.getCause());
+        }
+    }
+
+    /**
+     * Compare the output with the output of correct code
+     *
+     * @param correctResult result of correct code
+     * @param output        output
+     * @return result
+     */
+    private ExamineResult compare(Environment.SystemOutput correctResult, OutputBuffer output) {
         if (correctResult.exitCode() != Environment.EXIT_SUCCESS) {
-            return new ExamineResult(
-                    Examiner.ERROR,
-                    "Checker error: %s".formatted(new String(correctResult.stderr(), Environment.SYSTEM_CHARSET)),
-                    Optional.empty()
-            );
+            var message = "Checker error: %s".formatted(new String(correctResult.stderr(), Environment.SYSTEM_CHARSET));
+            correctResult.release();
+            return new ExamineResult(Examiner.ERROR, message, Optional.empty());
         }
-        var correct = correctResult.stdout();
+        correctResult.err().release();
+        var correct = correctResult.out();
         if (mode == ExaminerMode.STRICT) {
             return compareByStrict(output, correct);
         } else if (mode == ExaminerMode.TRIM) {
             return compareByTrim(output, correct);
         } else if (mode == ExaminerMode.TOKEN) {
             return compareByToken(output, correct);
+        } else if (mode == ExaminerMode.FLOAT) {
+            return compareByFloat(output, correct);
+        } else if (mode == ExaminerMode.UNORDERED) {
+            return compareByUnordered(output, correct);
         }
         return new ExamineResult(Examiner.FAILED, "Mode %s Not Found".formatted(mode.toString()), Optional.empty());
     }
 
     @Override
     public Environment.SystemOutput build() {
+        fingerprint = null;
         return lang.compile();
     }
 
     /**
-     * Compare two byte arrays exact by their values
+     * Compare two outputs exact by their values, large outputs are compared by chunks in parallel
      *
-     * @param a byte array a
-     * @param b byte array b
+     * @param a output a
+     * @param b output b
      * @return
      */
-    private ExamineResult compareByStrict(byte[] a, byte[] b) {
-        var success = Arrays.compare(a, b) == 0;
-        return new ExamineResult(success ? Examiner.SUCCESS : Examiner.FAILED,
-                "Strict Mode Comparison: " + messageBySuccess(success), Optional.of(b));
+    private ExamineResult compareByStrict(OutputBuffer a, OutputBuffer b) {
+        var mismatch = ChunkedComparator.strict(a, b);
+        if (mismatch >= 0) {
+            return new ExamineResult(Examiner.FAILED,
+                    "Strict Mode Comparison: %s at byte %d".formatted(messageBySuccess(false), mismatch),
+                    Optional.of(b));
+        }
+        return new ExamineResult(Examiner.SUCCESS, "Strict Mode Comparison: " + messageBySuccess(true), Optional.of(b));
     }
 
     /**
-     * Compare two byte arrays by converting them to string, then split by line, then examine after trim each line
+     * Compare two outputs line by line, ignoring the spaces at both ends of each line. Large outputs are compared by
+     * chunks of lines in parallel.
      *
      * @param a a
      * @param b b
      * @return
      */
-    private ExamineResult compareByTrim(byte[] a, byte[] b) {
-        String[] x = new String(a, Environment.SYSTEM_CHARSET).split("\n");
-        String[] y = new String(b, Environment.SYSTEM_CHARSET).split("\n");
-        if (x.length != y.length) {
-            return new ExamineResult(Examiner.FAILED, "Trim Mode Comparison: length get output not same", Optional.of(b));
-        }
-        int len = x.length;
-        for (int i = 0; i < len; i++) {
-            if (!x[i].trim().equals(y[i].trim())) {
-                return new ExamineResult(Examiner.FAILED,
-                        "Trim Mode Comparison: '%s' != '%s'".formatted(x[i].trim(), y[i].trim()),
-                        Optional.of(b));
-            }
+    private ExamineResult compareByTrim(OutputBuffer a, OutputBuffer b) {
+        var mismatch = ChunkedComparator.trim(a, b);
+        if (mismatch != null) {
+            return new ExamineResult(Examiner.FAILED, "Trim Mode Comparison: " + mismatch, Optional.of(b));
         }
         return new ExamineResult(Examiner.SUCCESS, "Trim Mode Comparison: " + messageBySuccess(true), Optional.of(b));
     }
@@ -103,35 +261,56 @@ public class ComparisonExaminer implements Examiner {
     }
 
     /**
-     * Compare two byte array by converting them into string, then into each token (word), comparing the words
+     * Compare two outputs token (word) by token
      *
      * @param a a
      * @param b b
      * @return
      */
-    private static ExamineResult compareByToken(byte[] a, byte[] b) {
-        Scanner scannerA = new Scanner(new String(a, Environment.SYSTEM_CHARSET)),
-                scannerB = new Scanner(new String(b, Environment.SYSTEM_CHARSET));
-        while (scannerA.hasNext()) {
-            if (!scannerB.hasNext()) {
-                return new ExamineResult(Examiner.FAILED, "Token Comparison: input too long", Optional.of(b));
-            }
-            var x = scannerA.next();
-            var y = scannerB.next();
-            if (!x.equals(y)) {
-                return new ExamineResult(Examiner.FAILED, "Token Comparison: %s is not %s".formatted(x, y), Optional.of(b));
-            }
+    private static ExamineResult compareByToken(OutputBuffer a, OutputBuffer b) {
+        var mismatch = ByteComparator.token(a.map(), b.map());
+        if (mismatch != null) {
+            return new ExamineResult(Examiner.FAILED, "Token Comparison: " + mismatch, Optional.of(b));
         }
-        if (!scannerB.hasNext()) {
-            return new ExamineResult(Examiner.SUCCESS, "Token Comparison: " + messageBySuccess(true), Optional.of(b));
-        } else {
-            return new ExamineResult(Examiner.FAILED, "Token Comparison: " + messageBySuccess(false), Optional.of(b));
+        return new ExamineResult(Examiner.SUCCESS, "Token Comparison: " + messageBySuccess(true), Optional.of(b));
+    }
+
+    /**
+     * Compare two outputs token by token, numbers being same if they are within epsilon
+     *
+     * @param a a
+     * @param b b
+     * @return
+     */
+    private ExamineResult compareByFloat(OutputBuffer a, OutputBuffer b) {
+        var mismatch = ByteComparator.floating(a.map(), b.map(), epsilon);
+        if (mismatch != null) {
+            return new ExamineResult(Examiner.FAILED,
+                    "Float Comparison (epsilon %s): %s".formatted(epsilon, mismatch), Optional.of(b));
+        }
+        return new ExamineResult(Examiner.SUCCESS, "Float Comparison: " + messageBySuccess(true), Optional.of(b));
+    }
+
+    /**
+     * Compare two outputs by their trimmed lines in any order
+     *
+     * @param a a
+     * @param b b
+     * @return
+     */
+    private static ExamineResult compareByUnordered(OutputBuffer a, OutputBuffer b) {
+        var mismatch = ByteComparator.unordered(a.map(), b.map());
+        if (mismatch != null) {
+            return new ExamineResult(Examiner.FAILED, "Unordered Comparison: " + mismatch, Optional.of(b));
         }
+        return new ExamineResult(Examiner.SUCCESS, "Unordered Comparison: " + messageBySuccess(true), Optional.of(b));
     }
 
     public enum ExaminerMode {
         STRICT,
         TRIM,
-        TOKEN;
+        TOKEN,
+        FLOAT,
+        UNORDERED;
     }
 }
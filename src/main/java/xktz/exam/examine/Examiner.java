@@ -1,7 +1,11 @@
 package xktz.exam.examine;
 
 import xktz.exam.environment.Environment;
+import xktz.exam.environment.OutputBuffer;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Optional;
 
 /**
@@ -25,17 +29,89 @@ public interface Examiner {
      */
     int FAILED = 1;
 
-    ExamineResult examine(byte[] input, byte[] output);
+    /**
+     * Examine an output, either of them may be spilled out of memory
+     *
+     * @param input  input
+     * @param output output
+     * @return result
+     */
+    ExamineResult examine(OutputBuffer input, OutputBuffer output);
+
+    /**
+     * Examine an output in memory
+     *
+     * @param input  input
+     * @param output output
+     * @return result
+     */
+    default ExamineResult examine(byte[] input, byte[] output) {
+        return examine(OutputBuffer.of(input), OutputBuffer.of(output));
+    }
+
+    /**
+     * Examine with the input in a file, so that a large input is not loaded into memory by examiners able to stream it
+     *
+     * @param input  file of input
+     * @param output output
+     * @return result
+     */
+    default ExamineResult examine(Path input, OutputBuffer output) {
+        try {
+            return examine(OutputBuffer.of(Files.readAllBytes(input)), output);
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+    }
+
+    /**
+     * Begin examining an input before the output is there, so that the work needing only the input (like running a
+     * reference solution) is done at the same time as the project runs.
+     * Examiners without such work examine everything when the output is given.
+     *
+     * @param input input
+     * @return examination waiting for the output
+     */
+    default Speculation begin(OutputBuffer input) {
+        return new Speculation() {
+            @Override
+            public ExamineResult examine(OutputBuffer output) {
+                return Examiner.this.examine(input, output);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
 
     Environment.SystemOutput build();
 
+    /**
+     * An examination begun on an input, waiting for the output
+     */
+    interface Speculation {
+        /**
+         * Finish the examination with the output
+         *
+         * @param output output
+         * @return result
+         */
+        ExamineResult examine(OutputBuffer output);
+
+        /**
+         * Give up the examination, for example because the project failed, and stop the work begun for it
+         */
+        void cancel();
+    }
+
     /**
      * The result for an examine.
      *
      * @param state   success, failed, or running exception
      * @param message message
-     * @param info    information written into the files.
+     * @param info    information written into the files, the expected output may be spilled out of memory
      */
-    public record ExamineResult(int state, String message, Optional<byte[]> info) {
+    public record ExamineResult(int state, String message, Optional<OutputBuffer> info) {
     }
 }
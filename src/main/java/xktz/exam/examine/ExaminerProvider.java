@@ -1,10 +1,10 @@
 package xktz.exam.examine;
 
 import xktz.exam.environment.Environment;
-import xktz.exam.environment.StandardEnvironment;
 import xktz.exam.lang.LanguageRuntime;
 import xktz.exam.lang.LanguageRuntimeProvider;
 
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
@@ -19,30 +19,53 @@ import java.util.function.Function;
 public class ExaminerProvider {
 
     /**
-     * Map get examiner creators
+     * key for the type get examiner
      */
-    private static final Map<String, ExaminerGenerator<?>> examinerMap;
+    private static final String EXAMINER_TYPE_KEY = "type";
 
     /**
-     * key for the type get examiner
+     * Examiners by type, registered when the first examiner is created
      */
-    private static final String EXAMINER_TYPE_KEY = "type";
+    private static final class Examiners {
+        /**
+         * Map get examiner creators
+         */
+        private static final Map<String, ExaminerGenerator<?>> examinerMap = new ConcurrentHashMap<>();
 
-    static {
-        examinerMap = new ConcurrentHashMap<>();
-        examinerMap.put("code", (workDirectory, environment, config) -> new CodeExaminer(LanguageRuntimeProvider.getRuntime(
-                workDirectory,
-                environment,
-                (Map<String, Object>) config.get("runner")
-        )));
-        examinerMap.put("compare", (workDirectory, environment, config) -> new ComparisonExaminer(
-                ComparisonExaminer.ExaminerMode.valueOf(config.get("mode").toString().toUpperCase()),
-                LanguageRuntimeProvider.getRuntime(
-                        workDirectory,
-                        environment,
-                        (Map<String, Object>) config.get("runner")
-                )
-        ));
+        static {
+            examinerMap.put("code", (workDirectory, environment, config) -> new CodeExaminer(LanguageRuntimeProvider.getRuntime(
+                    workDirectory,
+                    environment,
+                    (Map<String, Object>) config.get("runner")
+            ), Boolean.parseBoolean(config.getOrDefault("persistent", false).toString())));
+            examinerMap.put("compare", (workDirectory, environment, config) -> new ComparisonExaminer(
+                    ComparisonExaminer.ExaminerMode.valueOf(config.get("mode").toString().toUpperCase()),
+                    LanguageRuntimeProvider.getRuntime(
+                            workDirectory,
+                            environment,
+                            (Map<String, Object>) config.get("runner")
+                    ),
+                    Double.parseDouble(config.getOrDefault("epsilon", ComparisonExaminer.DEFAULT_EPSILON).toString()),
+                    Boolean.parseBoolean(config.getOrDefault("speculative", true).toString()),
+                    referenceCache(workDirectory, (Map<String, Object>) config.get("cache"))
+            ));
+        }
+    }
+
+    /**
+     * Get the cache of correct outputs by config
+     *
+     * @param workDirectory work directory
+     * @param config        config of cache
+     * @return cache, null if there is no config
+     */
+    private static ReferenceCache referenceCache(String workDirectory, Map<String, Object> config) {
+        if (config == null) {
+            return null;
+        }
+        var dir = Path.of(config.getOrDefault("dir", ReferenceCache.DEFAULT_DIRECTORY).toString());
+        return new ReferenceCache(dir.isAbsolute() ? dir : Path.of(workDirectory).resolve(dir).normalize(),
+                Long.parseLong(config.getOrDefault("limit", ReferenceCache.DEFAULT_LIMIT).toString()));
     }
 
     /**
@@ -71,13 +94,10 @@ public class ExaminerProvider {
             config.put("mode", ComparisonExaminer.ExaminerMode.STRICT);
         }
         var type = config.get(EXAMINER_TYPE_KEY).toString();
-        var generator = examinerMap.get(type);
+        var generator = Examiners.examinerMap.get(type);
         if (generator == null) {
             throw new ExaminerNotSupportedException(type);
         }
-        if (environment == null) {
-            environment = new StandardEnvironment(workDirectory);
-        }
         return generator.generate(workDirectory, environment, config);
     }
 
@@ -0,0 +1,143 @@
+package xktz.exam.examine;
+
+import xktz.exam.environment.Environment;
+import xktz.exam.environment.OutputBuffer;
+import xktz.exam.environment.PersistentProcess;
+import xktz.exam.lang.LanguageRuntime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Checker staying alive for all the epochs. For each epoch it gets, on stdin, a frame of input and a frame of output,
+ * each frame being the length of data in a line followed by the data. It answers one line for each epoch, starting by
+ * "1" (correct) or "0" (wrong), the rest of line is the message.
+ * The checker should exit when its stdin is closed.
+ *
+ * @author XKTZ
+ * @date 2022-12-12
+ */
+public class PersistentChecker {
+
+    /**
+     * Language runtime of checker
+     */
+    private final LanguageRuntime lang;
+
+    /**
+     * Checkers not being used. A checker is started for each thread examining at the same time.
+     */
+    private final Queue<PersistentProcess> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param lang language runtime of checker
+     */
+    public PersistentChecker(LanguageRuntime lang) {
+        this.lang = lang;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> idle.forEach(PersistentProcess::close)));
+    }
+
+    /**
+     * Check an output
+     *
+     * @param input  input
+     * @param output output
+     * @return verdict line: verdict, then message
+     */
+    public Verdict check(OutputBuffer input, OutputBuffer output) {
+        return check(stdin -> writeFrame(stdin, input), output);
+    }
+
+    /**
+     * Check an output, streaming the input from a file
+     *
+     * @param input  file of input
+     * @param output output
+     * @return verdict line: verdict, then message
+     */
+    public Verdict check(Path input, OutputBuffer output) {
+        return check(stdin -> {
+            try (var in = Files.newInputStream(input)) {
+                PersistentProcess.writeFrame(stdin, Files.size(input), in);
+            }
+        }, output);
+    }
+
+    /**
+     * Check an output
+     *
+     * @param input  write the frame of input
+     * @param output output
+     * @return verdict line: verdict, then message
+     */
+    private Verdict check(FrameWriter input, OutputBuffer output) {
+        var checker = idle.poll();
+        if (checker == null) {
+            checker = new PersistentProcess(() -> lang.environment().start(lang.runDirectory(), lang.command()));
+        }
+        try {
+            var line = checker.exchange(lang.timeLimit(), (stdin, stdout) -> {
+                input.write(stdin);
+                writeFrame(stdin, output);
+                stdin.flush();
+                return PersistentProcess.readLine(stdout);
+            }).trim();
+            var split = line.split("\\s+", 2);
+            return new Verdict(split[0], split.length > 1 ? split[1] : "");
+        } catch (Environment.TimeoutException e) {
+            throw new CheckerException("Checker timed out after %d ms, restarting".formatted(lang.timeLimit()),
+                    checker.takeStderr());
+        } catch (Environment.EnvironmentExecutionException e) {
+            var cause = e.getCause() instanceof IOException ? e.getCause().getMessage() : e.getMessage();
+            throw new CheckerException("Checker crashed (%s), restarting".formatted(cause), checker.takeStderr());
+        } finally {
+            idle.offer(checker);
+        }
+    }
+
+    /**
+     * Write a frame of an output, streaming it if it is spilled out of memory
+     *
+     * @param stdin  stdin of checker
+     * @param output output
+     */
+    private static void writeFrame(OutputStream stdin, OutputBuffer output) throws IOException {
+        if (output.inMemory()) {
+            PersistentProcess.writeFrame(stdin, output.bytes());
+            return;
+        }
+        try (var in = output.open()) {
+            PersistentProcess.writeFrame(stdin, output.size(), in);
+        }
+    }
+
+    /**
+     * Writer of a frame
+     */
+    @FunctionalInterface
+    private interface FrameWriter {
+        void write(OutputStream stdin) throws IOException;
+    }
+
+    /**
+     * Verdict of checker
+     *
+     * @param verdict verdict, "1" or "0"
+     * @param message message
+     */
+    public record Verdict(String verdict, String message) {
+    }
+
+    /**
+     * Exception that checker crashed or hung
+     */
+    public static class CheckerException extends RuntimeException {
+        public CheckerException(String msg, byte[] stderr) {
+            super(stderr.length == 0 ? msg : msg + ": " + new String(stderr, Environment.SYSTEM_CHARSET));
+        }
+    }
+}
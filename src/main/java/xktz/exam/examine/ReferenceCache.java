@@ -0,0 +1,231 @@
+package xktz.exam.examine;
+
+import xktz.exam.environment.Digests;
+import xktz.exam.environment.Environment;
+import xktz.exam.environment.OutputBuffer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Outputs of the correct code stored on disk, addressed by the hash of the input together with the fingerprint of the
+ * correct code. An output is stored in "ab/abcdef..." under the directory, named by its key.
+ * <p>
+ * Outputs are written into a temporary file first and then moved to their place at once, so several exams could share
+ * the directory. Each read refreshes the modification time of the output, and once the directory grows over its limit
+ * the outputs not read for the longest time are deleted.
+ *
+ * @author XKTZ
+ * @date 2022-12-30
+ */
+public class ReferenceCache {
+
+    /**
+     * Default directory of cache, under work directory
+     */
+    public static final String DEFAULT_DIRECTORY = "cache";
+
+    /**
+     * Default limit of the size of cache, in bytes
+     */
+    public static final long DEFAULT_LIMIT = 1L << 30;
+
+    /**
+     * Part of the limit left after deleting the outputs
+     */
+    private static final double EVICTION_RATIO = 0.9;
+
+    /**
+     * Suffix of outputs being written
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Directory of cache
+     */
+    private final Path directory;
+
+    /**
+     * Limit of the size of cache
+     */
+    private final long limit;
+
+    /**
+     * Size of cache known by this exam, others sharing the directory are only seen when it is scanned
+     */
+    private final AtomicLong size;
+
+    /**
+     * @param directory directory of cache
+     * @param limit     limit of the size of cache, in bytes
+     */
+    public ReferenceCache(Path directory, long limit) {
+        this.directory = directory;
+        this.limit = limit;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        this.size = new AtomicLong(entries().stream().mapToLong(Entry::size).sum());
+    }
+
+    /**
+     * Key of an input
+     *
+     * @param fingerprint fingerprint of correct code
+     * @param input       input
+     * @return key
+     */
+    public String key(String fingerprint, OutputBuffer input) {
+        var digest = Digests.sha256();
+        Digests.update(digest, fingerprint);
+        try {
+            Digests.update(digest, input);
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        return Digests.hex(digest);
+    }
+
+    /**
+     * Key of an input in a file
+     *
+     * @param fingerprint fingerprint of correct code
+     * @param input       file of input
+     * @return key
+     */
+    public String key(String fingerprint, Path input) {
+        var digest = Digests.sha256();
+        Digests.update(digest, fingerprint);
+        try {
+            Digests.update(digest, input);
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        return Digests.hex(digest);
+    }
+
+    /**
+     * Get the output stored by a key. The file of output is left in the cache, it must not be released by deleting.
+     *
+     * @param key key
+     * @return output, empty if it is not stored
+     */
+    public Optional<OutputBuffer> get(String key) {
+        var file = fileOf(key);
+        try {
+            // refreshing the time first keeps the output from being deleted as the oldest one
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            return Optional.of(OutputBuffer.ofFile(file, Files.size(file)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+    }
+
+    /**
+     * Store an output by a key, replacing the one stored by others at the same time
+     *
+     * @param key    key
+     * @param output output
+     */
+    public void put(String key, OutputBuffer output) {
+        var file = fileOf(key);
+        Path temporary = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temporary = Files.createTempFile(directory, key, TEMPORARY_SUFFIX);
+            output.writeTo(temporary);
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (size.addAndGet(output.size()) > limit) {
+            evict();
+        }
+    }
+
+    /**
+     * Delete the outputs not read for the longest time, until the cache is under its limit again
+     */
+    private synchronized void evict() {
+        if (size.get() <= limit) {
+            return;
+        }
+        var entries = entries();
+        entries.sort(Comparator.comparing(Entry::modified));
+        var total = entries.stream().mapToLong(Entry::size).sum();
+        var target = (long) (limit * EVICTION_RATIO);
+        for (var entry : entries) {
+            if (total <= target) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entry.file());
+            } catch (IOException ignored) {
+                // taken by others sharing the cache
+            }
+            total -= entry.size();
+        }
+        size.set(total);
+    }
+
+    /**
+     * Scan the outputs stored in cache
+     *
+     * @return outputs
+     */
+    private List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.find(directory, 2,
+                (path, attributes) -> attributes.isRegularFile() && !path.getParent().equals(directory))) {
+            files.forEach(file -> {
+                try {
+                    var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime()));
+                } catch (IOException ignored) {
+                    // deleted by others sharing the cache
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        return entries;
+    }
+
+    /**
+     * File of the output stored by a key
+     */
+    private Path fileOf(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * Output stored in cache
+     *
+     * @param file     file
+     * @param size     size
+     * @param modified last modified time
+     */
+    private record Entry(Path file, long size, FileTime modified) {
+    }
+}
@@ -0,0 +1,88 @@
+package xktz.exam.generate;
+
+import xktz.exam.environment.Environment;
+import xktz.exam.lang.LanguageRuntime;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Source of test cases asking the generator for a batch of cases in one run.
+ * The generator gets the number of cases wanted as the first line of its input, followed by the configured input.
+ * A worker finding no case left runs the generator by itself, so that workers never wait for the batch of another.
+ *
+ * @author XKTZ
+ * @date 2022-12-08
+ */
+public class BatchedCaseSource {
+
+    /**
+     * Generator
+     */
+    private final LanguageRuntime generator;
+
+    /**
+     * Input of generator, with the batch header
+     */
+    private final byte[] input;
+
+    /**
+     * Framing splitting the output
+     */
+    private final CaseFraming framing;
+
+    /**
+     * Delimiter of framing
+     */
+    private final byte[] delimiter;
+
+    /**
+     * Cases generated but not yet taken
+     */
+    private final Queue<Environment.SystemOutput> cases = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param generator generator
+     * @param input     input of generator
+     * @param batch     number of cases in a batch
+     * @param framing   framing
+     * @param delimiter delimiter
+     */
+    public BatchedCaseSource(LanguageRuntime generator, byte[] input, int batch, CaseFraming framing, byte[] delimiter) {
+        this.generator = generator;
+        var header = (batch + "\n").getBytes(StandardCharsets.US_ASCII);
+        this.input = Arrays.copyOf(header, header.length + input.length);
+        System.arraycopy(input, 0, this.input, header.length, input.length);
+        this.framing = framing;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Next test case. Runs the generator if all the cases generated are taken, taking the first case of the batch and
+     * leaving the others for the next calls. If the generator failed, its output is returned instead of a case.
+     *
+     * @return test case as a generator output
+     */
+    public Environment.SystemOutput next() {
+        var taken = cases.poll();
+        if (taken != null) {
+            return taken;
+        }
+        var output = generator.run(input);
+        if (output.exitCode() != Environment.EXIT_SUCCESS) {
+            return output;
+        }
+        var split = framing.split(output.stdout(), delimiter);
+        if (split.isEmpty()) {
+            throw new CaseFraming.FramingException("generator produced no case");
+        }
+        // the stderr of generator is reported once, with the first case
+        var first = new Environment.SystemOutput(Environment.EXIT_SUCCESS, split.get(0), output.stderr());
+        for (var c : split.subList(1, split.size())) {
+            cases.add(new Environment.SystemOutput(Environment.EXIT_SUCCESS, c, new byte[0]));
+        }
+        return first;
+    }
+}
@@ -0,0 +1,119 @@
+package xktz.exam.generate;
+
+import xktz.exam.environment.Environment;
+import xktz.exam.environment.OutputBuffer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the test cases generated, telling if a case was generated before within a fixed memory.
+ * A case never generated before could be taken as generated, by a chance growing with the cases put in, but a case
+ * generated before is always found. Cases could be put in by several threads at the same time, though the same case
+ * put in by two threads at once could be taken as new by both.
+ *
+ * @author XKTZ
+ * @date 2022-12-31
+ */
+public class BloomFilter {
+
+    /**
+     * Max number of bits set for a case
+     */
+    private static final int MAX_HASHES = 16;
+
+    /**
+     * Bytes hashed at a time when reading a spilled case
+     */
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Bits
+     */
+    private final AtomicLongArray bits;
+
+    /**
+     * Number of bits
+     */
+    private final long size;
+
+    /**
+     * Number of bits set for a case
+     */
+    private final int hashes;
+
+    /**
+     * Create a filter using a memory, with the least chance of mistakes when the expected number of cases are put in
+     *
+     * @param memory   bytes of memory
+     * @param expected expected number of cases
+     */
+    public BloomFilter(long memory, long expected) {
+        var words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, memory / Long.BYTES));
+        this.bits = new AtomicLongArray(words);
+        this.size = (long) words * Long.SIZE;
+        // k = m / n * ln 2 gives the least false positive rate
+        var optimal = Math.round((double) size / Math.max(1, expected) * Math.log(2));
+        this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, optimal));
+    }
+
+    /**
+     * Put a case in
+     *
+     * @param data case
+     * @return the case was put in before, or it is taken as so by mistake
+     */
+    public boolean put(OutputBuffer data) {
+        var hash = mix(hash(data));
+        // double hashing, the i-th bit is h1 + i * h2
+        var step = mix(hash ^ 0x9e3779b97f4a7c15L) | 1;
+        var seen = true;
+        for (int i = 0; i < hashes; i++) {
+            var bit = Long.remainderUnsigned(hash + i * step, size);
+            var word = (int) (bit >>> 6);
+            var mask = 1L << bit;
+            var previous = bits.getAndUpdate(word, value -> value | mask);
+            if ((previous & mask) == 0) {
+                seen = false;
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * FNV-1a hash of a case, streaming it if it is spilled
+     */
+    private static long hash(OutputBuffer data) {
+        var hash = 0xcbf29ce484222325L;
+        if (data.inMemory()) {
+            var bytes = data.bytes();
+            return hash(hash, bytes, bytes.length);
+        }
+        try (var in = data.open()) {
+            var buffer = new byte[BUFFER];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                hash = hash(hash, buffer, read);
+            }
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (data[i] & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Spread the bits of hash, FNV mixes the low bits poorly
+     */
+    private static long mix(long hash) {
+        hash = (hash ^ hash >>> 33) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ hash >>> 33) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+}
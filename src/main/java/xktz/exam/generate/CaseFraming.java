@@ -0,0 +1,103 @@
+package xktz.exam.generate;
+
+import xktz.exam.environment.Environment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ways splitting the output of a generator into several test cases
+ *
+ * @author XKTZ
+ * @date 2022-12-08
+ */
+public enum CaseFraming {
+    /**
+     * Cases are separated by a delimiter. A delimiter after the last case is allowed.
+     */
+    DELIMITER {
+        @Override
+        public List<byte[]> split(byte[] data, byte[] delimiter) {
+            if (delimiter.length == 0) {
+                throw new FramingException("delimiter of framing is empty");
+            }
+            List<byte[]> cases = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i + delimiter.length <= data.length; ) {
+                if (Arrays.equals(data, i, i + delimiter.length, delimiter, 0, delimiter.length)) {
+                    cases.add(Arrays.copyOfRange(data, start, i));
+                    i += delimiter.length;
+                    start = i;
+                } else {
+                    i++;
+                }
+            }
+            if (start < data.length) {
+                cases.add(Arrays.copyOfRange(data, start, data.length));
+            }
+            return cases;
+        }
+    },
+    /**
+     * Each case is a line with its length in bytes, followed by the bytes of case
+     */
+    LENGTH {
+        @Override
+        public List<byte[]> split(byte[] data, byte[] delimiter) {
+            List<byte[]> cases = new ArrayList<>();
+            int i = 0;
+            while (i < data.length) {
+                // skip the blank between cases
+                if (Character.isWhitespace(data[i])) {
+                    i++;
+                    continue;
+                }
+                long length = 0;
+                while (i < data.length && data[i] != '\n') {
+                    if (data[i] >= '0' && data[i] <= '9') {
+                        length = length * 10 + (data[i] - '0');
+                    } else if (data[i] != '\r') {
+                        throw new FramingException("length header of case %d is not a number".formatted(cases.size() + 1));
+                    }
+                    i++;
+                }
+                i++;
+                if (i + length > data.length) {
+                    throw new FramingException("case %d is shorter than its length %d".formatted(cases.size() + 1, length));
+                }
+                cases.add(Arrays.copyOfRange(data, i, (int) (i + length)));
+                i += length;
+            }
+            return cases;
+        }
+    };
+
+    /**
+     * Split data into cases
+     *
+     * @param data      data
+     * @param delimiter delimiter, used only by delimiter framing
+     * @return cases
+     */
+    public abstract List<byte[]> split(byte[] data, byte[] delimiter);
+
+    /**
+     * Get framing by its name in config
+     *
+     * @param name name
+     * @return framing
+     */
+    public static CaseFraming of(String name) {
+        return CaseFraming.valueOf(name.toUpperCase());
+    }
+
+    /**
+     * Exception that generator output does not match the framing
+     */
+    public static class FramingException extends Environment.EnvironmentExecutionException {
+        public FramingException(String msg) {
+            super("Framing of test cases failed: " + msg);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package xktz.exam.lang;
+
+import xktz.exam.environment.Digests;
+import xktz.exam.environment.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Manifests of the artifacts built, telling if an artifact is built from the same inputs as last time.
+ * The manifest of an artifact keeps the fingerprint of its inputs, together with the size and modified time of the
+ * artifact, so that an artifact changed by others is built again.
+ *
+ * @author XKTZ
+ * @date 2023-01-02
+ */
+public class BuildCache {
+
+    /**
+     * Directory of manifests under work directory
+     */
+    public static final String DIRECTORY = ".build";
+
+    /**
+     * Suffix of manifests
+     */
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    /**
+     * Directory of manifests
+     */
+    private final Path directory;
+
+    /**
+     * @param directory directory of manifests
+     */
+    public BuildCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * The artifact is built from the inputs of fingerprint and is not changed since then
+     *
+     * @param artifact    artifact
+     * @param fingerprint fingerprint of inputs
+     * @return up to date or not
+     */
+    public boolean upToDate(Path artifact, String fingerprint) {
+        var manifest = manifestOf(artifact);
+        try {
+            if (!Files.isRegularFile(artifact) || !Files.isRegularFile(manifest)) {
+                return false;
+            }
+            return Files.readAllLines(manifest, Environment.SYSTEM_CHARSET).equals(manifestLines(artifact, fingerprint));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record that the artifact is built from the inputs of fingerprint
+     *
+     * @param artifact    artifact
+     * @param fingerprint fingerprint of inputs
+     */
+    public void record(Path artifact, String fingerprint) {
+        var manifest = manifestOf(artifact);
+        try {
+            Files.createDirectories(directory);
+            var temporary = Files.createTempFile(directory, manifest.getFileName().toString(), ".tmp");
+            Files.write(temporary, manifestLines(artifact, fingerprint), Environment.SYSTEM_CHARSET);
+            Files.move(temporary, manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+    }
+
+    /**
+     * Forget the inputs of an artifact, before it is built again
+     *
+     * @param artifact artifact
+     */
+    public void invalidate(Path artifact) {
+        try {
+            Files.deleteIfExists(manifestOf(artifact));
+        } catch (IOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+    }
+
+    /**
+     * Put an executable into digest by its path, size and modified time. It is looked up in PATH if it is a name.
+     *
+     * @param digest  digest
+     * @param command executable
+     */
+    public static void updateExecutable(MessageDigest digest, String command) {
+        Digests.update(digest, command);
+        var executable = findExecutable(command);
+        if (executable != null) {
+            updateStamp(digest, executable);
+        }
+    }
+
+    /**
+     * Put a file into digest by its path, size and modified time, for files too large to be hashed each time
+     *
+     * @param digest digest
+     * @param file   file
+     */
+    public static void updateStamp(MessageDigest digest, Path file) {
+        Digests.update(digest, file.toAbsolutePath().toString());
+        try {
+            Digests.update(digest, Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis());
+        } catch (IOException e) {
+            Digests.update(digest, "missing");
+        }
+    }
+
+    /**
+     * Put a file into digest by its path and content, a missing file is put in as missing
+     *
+     * @param digest digest
+     * @param file   file
+     */
+    public static void updateContent(MessageDigest digest, Path file) {
+        Digests.update(digest, file.toAbsolutePath().toString());
+        try {
+            Digests.update(digest, file);
+        } catch (IOException e) {
+            Digests.update(digest, "missing");
+        }
+    }
+
+    /**
+     * Find an executable as it would be run
+     *
+     * @param command path or name of executable
+     * @return executable, null if it is not found
+     */
+    private static Path findExecutable(String command) {
+        try {
+            var path = Path.of(command);
+            if (path.getNameCount() > 1 || path.isAbsolute()) {
+                return Files.isRegularFile(path) ? path.toRealPath() : null;
+            }
+            var systemPath = System.getenv("PATH");
+            if (systemPath == null) {
+                return null;
+            }
+            for (var dir : systemPath.split(File.pathSeparator)) {
+                for (var name : List.of(command, command + ".exe")) {
+                    var candidate = Path.of(dir, name);
+                    if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) {
+                        return candidate.toRealPath();
+                    }
+                }
+            }
+        } catch (IOException | InvalidPathException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * Lines of the manifest of an artifact
+     */
+    private static List<String> manifestLines(Path artifact, String fingerprint) throws IOException {
+        return List.of(fingerprint, Files.size(artifact) + ":" + Files.getLastModifiedTime(artifact).toMillis());
+    }
+
+    /**
+     * Manifest of an artifact, named by the hash of its path
+     */
+    private Path manifestOf(Path artifact) {
+        var digest = Digests.sha256();
+        Digests.update(digest, artifact.toAbsolutePath().normalize().toString());
+        return directory.resolve(Digests.hex(digest).substring(0, 32) + MANIFEST_SUFFIX);
+    }
+}
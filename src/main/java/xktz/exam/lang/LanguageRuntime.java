@@ -1,14 +1,25 @@
 package xktz.exam.lang;
 
 import org.apache.commons.io.FileUtils;
+import xktz.exam.environment.Digests;
 import xktz.exam.environment.Environment;
+import xktz.exam.environment.OutputBuffer;
+import xktz.exam.generate.CaseFraming;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.ParameterizedType;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * A runtime for different language
@@ -28,11 +39,36 @@ public abstract class LanguageRuntime {
      */
     protected static final String KEY_COMMAND_OUTPUT = "commandOutput";
 
+    /**
+     * Key for number of cases running in one launch
+     */
+    protected static final String KEY_MULTITEST = "multitest";
+
+    /**
+     * Key for separator between the outputs of cases in one launch
+     */
+    protected static final String KEY_MULTITEST_SEPARATOR = "separator";
+
+    /**
+     * Key for skipping the compilation when the inputs are not changed since last build
+     */
+    protected static final String KEY_BUILD_CACHE = "buildCache";
+
+    /**
+     * Default separator between the outputs of cases
+     */
+    private static final String DEFAULT_MULTITEST_SEPARATOR = "---\n";
+
     /**
      * Temporary folder
      */
     private static final String TEMPORARY_DIRECTORY = ".tmp";
 
+    /**
+     * Number of runtimes created, naming their temporary folders
+     */
+    private static final AtomicInteger RUNTIME_COUNT = new AtomicInteger();
+
     /**
      * Work dir
      */
@@ -68,6 +104,21 @@ public abstract class LanguageRuntime {
      */
     private List<String> commandOutput;
 
+    /**
+     * Number of cases running in one launch
+     */
+    private final int multitest;
+
+    /**
+     * Separator between outputs of cases
+     */
+    private final byte[] multitestSeparator;
+
+    /**
+     * Manifests of artifacts built, null if the compilation is never skipped
+     */
+    private final BuildCache buildCache;
+
     /**
      * Create a language runtime by providing working directory and environment
      *
@@ -80,11 +131,18 @@ public abstract class LanguageRuntime {
         this.workDirectory = canonicalPath(workDirectory);
         this.projectDirectory = Path.of(projectDirectory).isAbsolute() ? canonicalPath(projectDirectory)
                 : canonicalPath(workDirectory + File.separator + projectDirectory);
-        this.temporaryDirectory = canonicalPath(workDirectory + File.separator + TEMPORARY_DIRECTORY);
+        // each runtime has its own temporary folder, so that runtimes could build at the same time
+        this.temporaryDirectory = canonicalPath(workDirectory + File.separator + TEMPORARY_DIRECTORY + File.separator
+                + RUNTIME_COUNT.incrementAndGet());
         this.environment = environment;
         this.config = config;
         this.commandOutput = Optional.ofNullable(property(KEY_COMMAND_OUTPUT, new PropertyType<List<String>>() {
         })).orElse(List.of("STDERR"));
+        this.multitest = Integer.parseInt(config.getOrDefault(KEY_MULTITEST, 1).toString());
+        this.multitestSeparator = config.getOrDefault(KEY_MULTITEST_SEPARATOR, DEFAULT_MULTITEST_SEPARATOR).toString()
+                .getBytes(Environment.SYSTEM_CHARSET);
+        this.buildCache = Boolean.parseBoolean(config.getOrDefault(KEY_BUILD_CACHE, false).toString())
+                ? new BuildCache(Path.of(this.workDirectory, BuildCache.DIRECTORY)) : null;
     }
 
     /**
@@ -108,7 +166,213 @@ public abstract class LanguageRuntime {
      * @param input the input for the language, the thing written in stdin
      * @return the result after running (stdout, stderr)
      */
-    public abstract Environment.SystemOutput run(byte[] input);
+    public Environment.SystemOutput run(byte[] input) {
+        return run(input, timeLimit());
+    }
+
+    /**
+     * Run the code providing input, with a time limit instead of the configured one
+     *
+     * @param input     the input for the language, the thing written in stdin
+     * @param timeLimit time limit
+     * @return the result after running (stdout, stderr)
+     */
+    public abstract Environment.SystemOutput run(byte[] input, long timeLimit);
+
+    /**
+     * Environment the code runs in
+     *
+     * @return environment
+     */
+    public final Environment environment() {
+        return environment;
+    }
+
+    /**
+     * Command running the code
+     *
+     * @return command
+     */
+    public abstract String[] command();
+
+    /**
+     * Directory the command runs in
+     *
+     * @return directory
+     */
+    public String runDirectory() {
+        return Paths.get("").toAbsolutePath().toString();
+    }
+
+    /**
+     * Fingerprint of the code as it is built, changing when the code is rebuilt differently.
+     * It is the hash of the command, together with the contents of the files the command refers to.
+     *
+     * @return fingerprint
+     */
+    public String fingerprint() {
+        var digest = Digests.sha256();
+        try {
+            for (var part : command()) {
+                Digests.update(digest, part);
+                var file = fileOf(part);
+                if (file != null && Files.isRegularFile(file)) {
+                    Digests.update(digest, file);
+                }
+            }
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        return Digests.hex(digest);
+    }
+
+    /**
+     * File a part of command refers to, relative to the run directory
+     *
+     * @param part part of command
+     * @return file, null if the part could not be a path
+     */
+    private Path fileOf(String part) {
+        try {
+            return Path.of(runDirectory()).resolve(part);
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run the code, streaming the input into it as the input is read
+     *
+     * @param input the input stream for the language, the thing written in stdin
+     * @return the result after running (stdout, stderr)
+     */
+    public Environment.SystemOutput run(InputStream input) {
+        var cmd = command();
+        outputCommand(String.join(" ", cmd));
+        return environment.executeCommand(runDirectory(), timeLimit(), input, cmd);
+    }
+
+    /**
+     * Run the code on an output of another process, streaming it if it is spilled out of memory
+     *
+     * @param input the input for the language, the thing written in stdin
+     * @return the result after running (stdout, stderr)
+     */
+    public Environment.SystemOutput run(OutputBuffer input) {
+        if (input.inMemory()) {
+            return run(input.bytes());
+        }
+        try (var in = input.open()) {
+            return run(in);
+        } catch (IOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+    }
+
+    /**
+     * Start the code, leaving its stdout & stderr to the caller. The input is written into its stdin in background.
+     *
+     * @param input the input for the language, the thing written in stdin
+     * @return process
+     */
+    public Process start(byte[] input) {
+        var cmd = command();
+        outputCommand(String.join(" ", cmd));
+        var process = environment.start(runDirectory(), cmd);
+        CompletableFuture.runAsync(() -> {
+            try (var stdin = process.getOutputStream()) {
+                stdin.write(input);
+            } catch (IOException ignored) {
+                // the process exited without reading all the input
+            }
+        }, environment.pumps());
+        return process;
+    }
+
+    /**
+     * Run the code providing input without blocking
+     *
+     * @param input the input for the language, the thing written in stdin
+     * @return future of the result after running (stdout, stderr)
+     */
+    public CompletableFuture<Environment.SystemOutput> runAsync(byte[] input) {
+        var cmd = command();
+        outputCommand(String.join(" ", cmd));
+        return environment.executeCommandAsync(runDirectory(), timeLimit(), input, cmd);
+    }
+
+    /**
+     * Time limit of running a case
+     *
+     * @return time limit
+     */
+    public abstract long timeLimit();
+
+    /**
+     * Number of cases could run in one launch, 1 if multitest is not enabled
+     *
+     * @return number of cases
+     */
+    public final int multitest() {
+        return multitest;
+    }
+
+    /**
+     * Run several cases in one launch. The code gets the number of cases as the first line, followed by all the
+     * inputs, and prints the separator after output of each case.
+     * If the launch failed, timed out, or the outputs could not be split into cases, each case runs alone when its
+     * result is taken, so that the failure belongs to the case causing it.
+     * The launch has the time limit of a single case, so that every case of a launch in time is in time alone. A launch
+     * of slow cases times out, and the cases are timed alone.
+     *
+     * @param inputs inputs of cases
+     * @return result of each case, running the case when taken if it must run alone
+     */
+    public List<Supplier<Environment.SystemOutput>> runMultiple(List<OutputBuffer> inputs) {
+        List<Supplier<Environment.SystemOutput>> alone = inputs.stream()
+                .<Supplier<Environment.SystemOutput>>map(input -> () -> run(input))
+                .toList();
+        // inputs spilled out of memory are too large to be worth joining
+        if (multitest <= 1 || inputs.size() <= 1 || !inputs.stream().allMatch(OutputBuffer::inMemory)) {
+            return alone;
+        }
+        var joined = new ByteArrayOutputStream();
+        joined.writeBytes((inputs.size() + "\n").getBytes(StandardCharsets.US_ASCII));
+        for (var buffer : inputs) {
+            var input = buffer.bytes();
+            joined.writeBytes(input);
+            if (input.length > 0 && input[input.length - 1] != '\n') {
+                joined.write('\n');
+            }
+        }
+        Environment.SystemOutput output;
+        try {
+            output = run(joined.toByteArray(), timeLimit());
+        } catch (Environment.TimeoutException e) {
+            outputCommand("Multitest of %d cases timed out, running cases alone".formatted(inputs.size()));
+            return alone;
+        }
+        if (output.exitCode() != Environment.EXIT_SUCCESS) {
+            outputCommand("Multitest of %d cases exited with %d, running cases alone"
+                    .formatted(inputs.size(), output.exitCode()));
+            return alone;
+        }
+        var outputs = CaseFraming.DELIMITER.split(output.stdout(), multitestSeparator);
+        if (outputs.size() != inputs.size()) {
+            outputCommand("Multitest of %d cases gave %d outputs, running cases alone"
+                    .formatted(inputs.size(), outputs.size()));
+            return alone;
+        }
+        List<Supplier<Environment.SystemOutput>> results = new ArrayList<>();
+        // the stderr of launch is reported once, with the first case
+        var stderr = output.stderr();
+        for (var out : outputs) {
+            var result = new Environment.SystemOutput(Environment.EXIT_SUCCESS, out, stderr);
+            results.add(() -> result);
+            stderr = new byte[0];
+        }
+        return results;
+    }
 
     /**
      * Run the code providing input. Use inherited IO.
@@ -128,6 +392,32 @@ public abstract class LanguageRuntime {
         return projectDirectory + File.separator + name;
     }
 
+    /**
+     * Build an artifact, skipping the compilation if the artifact is built from the same inputs last time
+     *
+     * @param artifact    artifact built
+     * @param fingerprint fingerprint of all the inputs of compilation
+     * @param compile     the compilation
+     * @return result of compilation, an empty success if it is skipped
+     */
+    protected final Environment.SystemOutput cachedBuild(Path artifact, Supplier<String> fingerprint,
+                                                         Supplier<Environment.SystemOutput> compile) {
+        if (buildCache == null) {
+            return compile.get();
+        }
+        var print = fingerprint.get();
+        if (buildCache.upToDate(artifact, print)) {
+            outputCommand("%s is up to date".formatted(artifact));
+            return new Environment.SystemOutput(Environment.EXIT_SUCCESS, new byte[0], new byte[0]);
+        }
+        buildCache.invalidate(artifact);
+        var result = compile.get();
+        if (result.exitCode() == Environment.EXIT_SUCCESS && Files.isRegularFile(artifact)) {
+            buildCache.record(artifact, print);
+        }
+        return result;
+    }
+
     /**
      * Request a temporary directory under work directory
      *
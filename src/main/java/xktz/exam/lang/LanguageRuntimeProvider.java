@@ -4,6 +4,7 @@ import xktz.exam.environment.Environment;
 import xktz.exam.environment.StandardEnvironment;
 import xktz.exam.lang.cpp.CppRuntime;
 import xktz.exam.lang.java.JavaRuntime;
+import xktz.exam.lang.text.TextRuntime;
 
 import java.util.HashMap;
 import java.util.List;
@@ -21,52 +22,73 @@ import java.util.function.Function;
 public class LanguageRuntimeProvider {
 
     /**
-     * map mapping language name to function
+     * key for language in config
      */
-    private static final Map<String, LanguageRuntimeGenerator<?>> languageRuntimeMap;
+    private static final String CONFIG_KEY_LANG = "lang";
 
     /**
-     * Init configuration map
+     * key for the way passing input & output of processes in config
      */
-    private static final Map<String, Function<String, Map<String, Object>>> initConfig;
+    private static final String CONFIG_KEY_IO = "io";
 
     /**
-     * key for language in config
+     * key for the size in bytes over which an output of process is spilled into a file
      */
-    private static final String CONFIG_KEY_LANG = "lang";
+    private static final String CONFIG_KEY_SPILL = "spill";
 
     /**
      * Language for text runtime, it is the default runtime when there isn't other settings
      */
     private static final String LANG_TEXT = "text";
 
-    static {
-        languageRuntimeMap = new ConcurrentHashMap<>();
-        initConfig = new ConcurrentHashMap<>();
-        languageRuntimeMap.put("c", (workDirectory, environment, config) ->
-                new CppRuntime(workDirectory,
-                        config.getOrDefault(LanguageRuntime.KEY_PROJECT_DIRECTORY, "").toString(),
-                        environment,
-                        config));
-        languageRuntimeMap.put("cpp", (workDirectory, environment, config) ->
-                new CppRuntime(workDirectory,
-                        config.getOrDefault(LanguageRuntime.KEY_PROJECT_DIRECTORY, "").toString(),
-                        environment,
-                        config));
-        languageRuntimeMap.put("c++", (workDirectory, environment, config) ->
-                new CppRuntime(workDirectory,
-                        config.getOrDefault(LanguageRuntime.KEY_PROJECT_DIRECTORY, "").toString(),
-                        environment,
-                        config));
-        languageRuntimeMap.put("java", (workDirectory, environment, config) ->
-                new JavaRuntime(workDirectory,
-                        config.getOrDefault(LanguageRuntime.KEY_PROJECT_DIRECTORY, "").toString(),
-                        environment,
-                        config));
-        initConfig.put("c", CppRuntime.initConfiguration("c"));
-        initConfig.put("cpp", CppRuntime.initConfiguration("cpp"));
-        initConfig.put("c++", CppRuntime.initConfiguration("cpp"));
-        initConfig.put("java", JavaRuntime.initConfiguration());
+    /**
+     * Runtimes by language name, registered when the first runtime is created, so that commands creating no runtime
+     * never load them
+     */
+    private static final class Runtimes {
+        /**
+         * map mapping language name to function
+         */
+        private static final Map<String, LanguageRuntimeGenerator<?>> languageRuntimeMap = new ConcurrentHashMap<>();
+
+        static {
+            LanguageRuntimeGenerator<CppRuntime> cpp = (workDirectory, environment, config) ->
+                    new CppRuntime(workDirectory,
+                            config.getOrDefault(LanguageRuntime.KEY_PROJECT_DIRECTORY, "").toString(),
+                            environment,
+                            config);
+            languageRuntimeMap.put("c", cpp);
+            languageRuntimeMap.put("cpp", cpp);
+            languageRuntimeMap.put("c++", cpp);
+            languageRuntimeMap.put("java", (workDirectory, environment, config) ->
+                    new JavaRuntime(workDirectory,
+                            config.getOrDefault(LanguageRuntime.KEY_PROJECT_DIRECTORY, "").toString(),
+                            environment,
+                            config));
+            languageRuntimeMap.put(LANG_TEXT, (workDirectory, environment, config) ->
+                    new TextRuntime(workDirectory,
+                            config.getOrDefault(LanguageRuntime.KEY_PROJECT_DIRECTORY, "").toString(),
+                            environment,
+                            config));
+        }
+    }
+
+    /**
+     * Init configurations by language name, registered only by the init command
+     */
+    private static final class InitConfigurations {
+        /**
+         * Init configuration map
+         */
+        private static final Map<String, Function<String, Map<String, Object>>> initConfig = new ConcurrentHashMap<>();
+
+        static {
+            initConfig.put("c", CppRuntime.initConfiguration("c"));
+            initConfig.put("cpp", CppRuntime.initConfiguration("cpp"));
+            initConfig.put("c++", CppRuntime.initConfiguration("cpp"));
+            initConfig.put("java", JavaRuntime.initConfiguration());
+            initConfig.put(LANG_TEXT, TextRuntime.initConfiguration());
+        }
     }
 
     /**
@@ -90,11 +112,14 @@ public class LanguageRuntimeProvider {
      */
     public static LanguageRuntime getRuntime(String workDirectory, Environment environment, Map<String, Object> config) {
         if (environment == null) {
-            environment = new StandardEnvironment(workDirectory);
+            var spill = config.get(CONFIG_KEY_SPILL);
+            environment = new StandardEnvironment(workDirectory, StandardEnvironment.IOMode.of(config.get(CONFIG_KEY_IO)),
+                    spill == null ? StandardEnvironment.DEFAULT_SPILL_THRESHOLD : ((Number) spill).longValue());
         }
         var lang = config.getOrDefault(CONFIG_KEY_LANG, LANG_TEXT).toString().toLowerCase();
-        if (languageRuntimeMap.containsKey(lang)) {
-            return languageRuntimeMap.get(lang).generate(workDirectory, environment, config);
+        var generator = Runtimes.languageRuntimeMap.get(lang);
+        if (generator != null) {
+            return generator.generate(workDirectory, environment, config);
         }
         throw new LanguageNotSupportedException(lang);
     }
@@ -106,7 +131,7 @@ public class LanguageRuntimeProvider {
      * @return init config
      */
     public static Map<String, Object> initConfiguration(String name, String lang) {
-        return initConfig.getOrDefault(lang, (x) -> Map.of()).apply(name);
+        return InitConfigurations.initConfig.getOrDefault(lang, (x) -> Map.of()).apply(name);
     }
 
     public static class LanguageNotSupportedException extends RuntimeException {
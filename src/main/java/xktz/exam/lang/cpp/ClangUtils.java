@@ -35,10 +35,19 @@ public class ClangUtils {
         return clangDirectory + command;
     }
 
+    /**
+     * Executable compiling llvm text files
+     *
+     * @return llc executable
+     */
+    public static String llc() {
+        return clang("llc");
+    }
+
     /**
      * Compile llvm bc file to object file
      */
     public static Environment.SystemOutput compileLLVMTextTo(Environment environment, String file, String output) {
-        return environment.executeCommand(10000, clang("llc"), "-filetype=obj", file, OUTPUT, output);
+        return environment.executeCommand(10000, llc(), "-filetype=obj", file, OUTPUT, output);
     }
 }
@@ -1,9 +1,12 @@
 package xktz.exam.lang.cpp;
 
+import xktz.exam.environment.Digests;
 import xktz.exam.environment.Environment;
 import xktz.exam.environment.system.SystemType;
+import xktz.exam.lang.BuildCache;
 import xktz.exam.lang.LanguageRuntime;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -11,6 +14,9 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 
 /**
@@ -71,6 +77,31 @@ public class CppRuntime extends LanguageRuntime {
      */
     private static final String KEY_EXTRA_ARGS = "args";
 
+    /**
+     * Key for number of processes started ahead of time
+     */
+    private static final String KEY_PRESPAWN = "prespawn";
+
+    /**
+     * Key for compiling each translation unit into a kept object, then linking them
+     */
+    private static final String KEY_INCREMENTAL = "incremental";
+
+    /**
+     * Key for the header precompiled
+     */
+    private static final String KEY_PCH = "pch";
+
+    /**
+     * Options of compiler giving an include directory
+     */
+    private static final List<String> INCLUDE_OPTIONS = List.of("-isystem", "-iquote", "-idirafter", "-I");
+
+    /**
+     * Time limit of a compiler invocation
+     */
+    private static final int COMPILE_LIMIT = 10000;
+
     /**
      * G++ compiler
      */
@@ -126,6 +157,21 @@ public class CppRuntime extends LanguageRuntime {
      */
     private final List<String> extraArgs;
 
+    /**
+     * Number of processes started ahead of time
+     */
+    private final int prespawn;
+
+    /**
+     * Compile each translation unit into a kept object, then link them
+     */
+    private final boolean incremental;
+
+    /**
+     * Header precompiled and included before each source, empty if there is none
+     */
+    private final String pch;
+
     /**
      * @param workDirectory    work directory
      * @param projectDirectory project directory
@@ -155,44 +201,161 @@ public class CppRuntime extends LanguageRuntime {
         });
         this.extraArgs = property(KEY_EXTRA_ARGS, new PropertyType<>() {
         });
+        this.prespawn = property(KEY_PRESPAWN, new PropertyType<>() {
+        });
+        this.incremental = property(KEY_INCREMENTAL, new PropertyType<>() {
+        });
+        this.pch = property(KEY_PCH, new PropertyType<>() {
+        });
+        if (prespawn > 0) {
+            environment.prespawn(runDirectory(), prespawn, command());
+        }
     }
 
     @Override
     public Environment.SystemOutput compile() {
+        return cachedBuild(Path.of(canonicalPath(out + SystemType.executableExtension())), this::buildFingerprint,
+                incremental ? this::compileIncremental : this::compileAll);
+    }
+
+    /**
+     * Compile the translation units changed since last build into objects at the same time, then link all the objects
+     *
+     * @return result of compilation, or of the first compilation failed
+     */
+    private Environment.SystemOutput compileIncremental() {
+        var cache = new ObjectCache(Path.of(workDirectory, BuildCache.DIRECTORY, ObjectCache.DIRECTORY));
+        var artifact = canonicalPath(out);
+        var flags = new ArrayList<>(sourceFlags());
+        flags.addAll(precompiledHeaderFlags());
+        List<ObjectCache.Unit> units = new ArrayList<>();
+        for (var file : files) {
+            units.add(cache.unit(artifact, compiler, Path.of(projectPath(file)), flags));
+        }
+        for (var file : llvmTextFiles) {
+            units.add(cache.unit(artifact, ClangUtils.llc(), Path.of(projectPath(file)), List.of()));
+        }
+
+        var stale = units.stream().filter(unit -> !cache.upToDate(unit)).toList();
+        var workers = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(stale.size(), Runtime.getRuntime().availableProcessors())));
+        List<Environment.SystemOutput> results;
+        try {
+            var compiling = stale.stream()
+                    .map(unit -> CompletableFuture.supplyAsync(() -> compileUnit(cache, unit), workers))
+                    .toList();
+            results = compiling.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new CompilationException(e.getCause());
+        } finally {
+            workers.shutdown();
+        }
+        for (var result : results) {
+            if (result.exitCode() != Environment.EXIT_SUCCESS) {
+                return result;
+            }
+        }
+
+        // link the objects
+        List<String> commands = new ArrayList<>();
+        commands.add(compiler);
+        commands.addAll(units.stream().map(unit -> unit.object().toString()).toList());
+        commands.addAll(libDirectories.stream().map(s -> "-L" + projectPath(s)).toList());
+        commands.addAll(libs.stream().map(s -> "-l" + s).toList());
+        commands.add("-o" + artifact);
+        commands.addAll(extraArgs);
+        outputCommand(String.join(" ", commands));
+        try {
+            var link = environment.executeCommand(COMPILE_LIMIT, commands.toArray(String[]::new));
+            // warnings of the units compiled are kept with the link
+            var stderr = new ByteArrayOutputStream();
+            results.forEach(result -> stderr.writeBytes(result.stderr()));
+            stderr.writeBytes(link.stderr());
+            return new Environment.SystemOutput(link.exitCode(), link.stdout(), stderr.toByteArray());
+        } finally {
+            // the processes started are running the old executable
+            environment.invalidatePrespawned();
+        }
+    }
+
+    /**
+     * Compile a translation unit into its object
+     *
+     * @param cache cache of objects
+     * @param unit  unit
+     * @return result of compilation
+     */
+    private Environment.SystemOutput compileUnit(ObjectCache cache, ObjectCache.Unit unit) {
+        cache.invalidate(unit);
+        Environment.SystemOutput result;
+        if (unit.tool().equals(compiler)) {
+            List<String> commands = new ArrayList<>();
+            commands.add(compiler);
+            commands.add("-c");
+            commands.add(unit.source().toString());
+            commands.add("-o");
+            commands.add(unit.object().toString());
+            commands.add("-MMD");
+            commands.add("-MF");
+            commands.add(unit.dependencies().toString());
+            commands.addAll(unit.flags());
+            outputCommand(String.join(" ", commands));
+            result = environment.executeCommand(COMPILE_LIMIT, commands.toArray(String[]::new));
+        } else {
+            outputCommand("%s -filetype=obj %s -o %s".formatted(unit.tool(), unit.source(), unit.object()));
+            result = ClangUtils.compileLLVMTextTo(environment, unit.source().toString(), unit.object().toString());
+        }
+        if (result.exitCode() == Environment.EXIT_SUCCESS) {
+            cache.record(unit);
+        }
+        return result;
+    }
+
+    /**
+     * Compile the llvm text files, then compile all the files together into the executable
+     *
+     * @return result of compilation
+     */
+    private Environment.SystemOutput compileAll() {
         requestTemporary();
         var temps = compileLLVM();
 
+        var commands = compileCommand(temps, precompiledHeaderFlags());
+
+        outputCommand(String.join(" ", commands));
+
+        try {
+            // then, compile the code
+            return environment.executeCommand(COMPILE_LIMIT, commands.toArray(String[]::new));
+        } finally {
+            // the processes started are running the old executable
+            environment.invalidatePrespawned();
+            disposeTemporary();
+        }
+    }
+
+    /**
+     * Command compiling the files, with the objects compiled from llvm text files
+     *
+     * @param temps       objects compiled from llvm text files
+     * @param precompiled flags using the precompiled header
+     * @return command
+     */
+    private List<String> compileCommand(List<String> temps, List<String> precompiled) {
         // generate the compilation command
         List<String> commands = new ArrayList<>();
         commands.add(compiler);
+        commands.addAll(precompiled);
         // add files and temps into
-        commands.addAll(files.stream().map(s -> {
-            var p = Path.of(s);
-            if (p.isAbsolute()) {
-                return canonicalPath(s);
-            } else {
-                return canonicalPath(projectFile(s));
-            }
-        }).toList());
+        commands.addAll(files.stream().map(this::projectPath).toList());
         commands.addAll(temps);
         // add include
-        commands.addAll(includes.stream().map(s -> {
-            var p = Path.of(s);
-            if (p.isAbsolute()) {
-                return "-I" + canonicalPath(s);
-            } else {
-                return "-I" + canonicalPath(projectFile(s));
-            }
-        }).toList());
+        commands.addAll(includes.stream().map(s -> "-I" + projectPath(s)).toList());
         // add lib directories file
-        commands.addAll(libDirectories.stream().map(s -> {
-            var p = Path.of(s);
-            if (p.isAbsolute()) {
-                return "-L" + canonicalPath(s);
-            } else {
-                return "-L" + canonicalPath(projectFile(s));
-            }
-        }).toList());
+        commands.addAll(libDirectories.stream().map(s -> "-L" + projectPath(s)).toList());
         // add libs
         commands.addAll(libs.stream().map(s -> "-l" + s).toList());
         // set output
@@ -200,15 +363,111 @@ public class CppRuntime extends LanguageRuntime {
             commands.add("-o" + canonicalPath(out));
         }
         commands.addAll(extraArgs);
+        return commands;
+    }
 
-        outputCommand(String.join(" ", commands));
+    /**
+     * Fingerprint of everything the executable is built from: the compiler, the command, the sources with the headers
+     * they include, the llvm text files and the libraries
+     *
+     * @return fingerprint
+     */
+    private String buildFingerprint() {
+        var digest = Digests.sha256();
+        BuildCache.updateExecutable(digest, compiler);
+        if (!llvmTextFiles.isEmpty()) {
+            BuildCache.updateExecutable(digest, ClangUtils.llc());
+        }
+        var llvmPaths = llvmTextFiles.stream().map(this::projectPath).toList();
+        // the precompiled header is built from the compiler, the flags and the header, all of them are put in
+        compileCommand(llvmPaths, List.of()).forEach(part -> Digests.update(digest, part));
+        Digests.update(digest, pch);
+        var sources = new ArrayList<>(files.stream().map(s -> Path.of(projectPath(s))).toList());
+        var header = Path.of(projectPath(pch));
+        if (!pch.isEmpty() && Files.isRegularFile(header)) {
+            sources.add(header);
+        }
+        for (var file : IncludeScanner.closure(sources, includeDirectories())) {
+            BuildCache.updateContent(digest, file);
+        }
+        for (var file : llvmPaths) {
+            BuildCache.updateContent(digest, Path.of(file));
+        }
+        // libraries are only looked at by their size and time, they could be large
+        for (var lib : libs) {
+            for (var dir : libDirectories) {
+                for (var name : List.of("lib" + lib + ".a", "lib" + lib + ".so", "lib" + lib + ".dylib", lib + ".lib")) {
+                    var file = Path.of(projectPath(dir), name);
+                    if (Files.isRegularFile(file)) {
+                        BuildCache.updateStamp(digest, file);
+                    }
+                }
+            }
+        }
+        return Digests.hex(digest);
+    }
 
-        try {
-            // then, compile the code
-            return environment.executeCommand(10000, commands.toArray(String[]::new));
-        } finally {
-            disposeTemporary();
+    /**
+     * Include directories of the compiler, given by _includes_ or by -I, -isystem, -iquote and -idirafter in the extra
+     * arguments, so that the headers in them are part of the fingerprint
+     *
+     * @return include directories
+     */
+    private List<Path> includeDirectories() {
+        List<Path> directories = new ArrayList<>(includes.stream().map(s -> Path.of(projectPath(s))).toList());
+        for (int i = 0; i < extraArgs.size(); i++) {
+            var arg = extraArgs.get(i);
+            for (var option : INCLUDE_OPTIONS) {
+                if (!arg.startsWith(option)) {
+                    continue;
+                }
+                // the directory is either joined to the option or the next argument
+                var directory = arg.length() > option.length() ? arg.substring(option.length())
+                        : i + 1 < extraArgs.size() ? extraArgs.get(++i) : null;
+                if (directory != null) {
+                    directories.add(Path.of(projectPath(directory)));
+                }
+                break;
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Flags compiling a source, besides the source and the output
+     *
+     * @return flags
+     */
+    private List<String> sourceFlags() {
+        List<String> flags = new ArrayList<>(includes.stream().map(s -> "-I" + projectPath(s)).toList());
+        flags.addAll(extraArgs);
+        return flags;
+    }
+
+    /**
+     * Precompile the header given by config if it is not precompiled for the compiler and flags yet
+     *
+     * @return flags using the precompiled header, empty if there is none
+     */
+    private List<String> precompiledHeaderFlags() {
+        if (pch.isEmpty()) {
+            return List.of();
         }
+        var file = Path.of(projectPath(pch));
+        var header = new PrecompiledHeader(Path.of(workDirectory, BuildCache.DIRECTORY, PrecompiledHeader.DIRECTORY),
+                compiler, pch, Files.isRegularFile(file) ? file : null,
+                includeDirectories(), sourceFlags());
+        return header.prepare(environment, this::outputCommand);
+    }
+
+    /**
+     * Canonical path of a file given in config, relative to project directory
+     *
+     * @param path path in config
+     * @return canonical path
+     */
+    private String projectPath(String path) {
+        return Path.of(path).isAbsolute() ? canonicalPath(path) : canonicalPath(projectFile(path));
     }
 
     private Function<String, String[]> getParser() {
@@ -224,12 +483,22 @@ public class CppRuntime extends LanguageRuntime {
     }
 
     @Override
-    public Environment.SystemOutput run(byte[] input) {
-        var cmd = getParser().apply(canonicalPath(out + SystemType.executableExtension()));
+    public Environment.SystemOutput run(byte[] input, long timeLimit) {
+        var cmd = command();
         outputCommand(
                 String.join(" ", cmd)
         );
-        return environment.executeCommand(timeLimit, input, cmd);
+        return environment.executeCommand(runDirectory(), timeLimit, input, cmd);
+    }
+
+    @Override
+    public String[] command() {
+        return getParser().apply(canonicalPath(out + SystemType.executableExtension()));
+    }
+
+    @Override
+    public long timeLimit() {
+        return timeLimit;
     }
 
     @Override
@@ -271,17 +540,20 @@ public class CppRuntime extends LanguageRuntime {
 
     @Override
     protected Map<String, Object> defaultProperties() {
-        return Map.of(
-                KEY_TIME_LIMIT, 1000,
-                KEY_COMMAND_OUTPUT, List.of("stderr"),
-                KEY_COMPILER, GPP_COMPILER,
-                KEY_FILES, List.of(),
-                KEY_INCLUDES, List.of(),
-                KEY_LIB_DIRS, List.of(),
-                KEY_LIBS, List.of(),
-                KEY_LLVM_TEXT_FILES, List.of(),
-                KEY_RUN_BY, "$",
-                KEY_EXTRA_ARGS, List.of()
+        return Map.ofEntries(
+                Map.entry(KEY_TIME_LIMIT, 1000),
+                Map.entry(KEY_COMMAND_OUTPUT, List.of("stderr")),
+                Map.entry(KEY_COMPILER, GPP_COMPILER),
+                Map.entry(KEY_FILES, List.of()),
+                Map.entry(KEY_INCLUDES, List.of()),
+                Map.entry(KEY_LIB_DIRS, List.of()),
+                Map.entry(KEY_LIBS, List.of()),
+                Map.entry(KEY_LLVM_TEXT_FILES, List.of()),
+                Map.entry(KEY_RUN_BY, "$"),
+                Map.entry(KEY_EXTRA_ARGS, List.of()),
+                Map.entry(KEY_PRESPAWN, 0),
+                Map.entry(KEY_INCREMENTAL, false),
+                Map.entry(KEY_PCH, "")
         );
     }
 
@@ -0,0 +1,105 @@
+package xktz.exam.lang.cpp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Find the headers a source includes, directly or through other headers, by reading its include directives.
+ * Headers not found in the directory of the including file or the include directories are taken as system headers
+ * and left out, they change with the compiler. Directives under a condition are always followed.
+ *
+ * @author XKTZ
+ * @date 2023-01-02
+ */
+final class IncludeScanner {
+
+    /**
+     * Include directive, group 1 is the opening quote and group 2 is the header
+     */
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*include\\s*([<\"])([^>\"]+)[>\"]");
+
+    private IncludeScanner() {
+    }
+
+    /**
+     * The sources together with all the headers they include, in a stable order
+     *
+     * @param sources            sources
+     * @param includeDirectories include directories
+     * @return files
+     */
+    static SortedSet<Path> closure(List<Path> sources, List<Path> includeDirectories) {
+        SortedSet<Path> found = new TreeSet<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        for (var source : sources) {
+            var normalized = source.toAbsolutePath().normalize();
+            if (found.add(normalized)) {
+                pending.push(normalized);
+            }
+        }
+        while (!pending.isEmpty()) {
+            var file = pending.pop();
+            for (var header : includes(file, includeDirectories)) {
+                if (found.add(header)) {
+                    pending.push(header);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Headers a file includes directly
+     */
+    private static List<Path> includes(Path file, List<Path> includeDirectories) {
+        List<Path> headers = new ArrayList<>();
+        List<String> lines;
+        try {
+            // headers are not always utf-8, the directives are ascii anyway
+            lines = Files.readAllLines(file, StandardCharsets.ISO_8859_1);
+        } catch (IOException | UncheckedIOException e) {
+            return headers;
+        }
+        for (var line : lines) {
+            var matcher = INCLUDE.matcher(line);
+            if (!matcher.find()) {
+                continue;
+            }
+            var header = resolve(file, matcher.group(1).equals("\""), matcher.group(2).trim(), includeDirectories);
+            if (header != null) {
+                headers.add(header);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Find a header as the compiler does, quoted headers are looked up next to the including file first
+     *
+     * @return header, null if it is a system header
+     */
+    private static Path resolve(Path file, boolean quoted, String name, List<Path> includeDirectories) {
+        try {
+            if (quoted && file.getParent() != null) {
+                var local = file.getParent().resolve(name);
+                if (Files.isRegularFile(local)) {
+                    return local.toAbsolutePath().normalize();
+                }
+            }
+            for (var dir : includeDirectories) {
+                var candidate = dir.resolve(name);
+                if (Files.isRegularFile(candidate)) {
+                    return candidate.toAbsolutePath().normalize();
+                }
+            }
+        } catch (InvalidPathException ignored) {
+        }
+        return null;
+    }
+}
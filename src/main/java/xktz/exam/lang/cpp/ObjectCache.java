@@ -0,0 +1,173 @@
+package xktz.exam.lang.cpp;
+
+import xktz.exam.environment.Digests;
+import xktz.exam.environment.Environment;
+import xktz.exam.lang.BuildCache;
+import xktz.exam.lang.LanguageRuntime;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Objects compiled from each translation unit, kept between builds. An object is compiled again only if the flags,
+ * the source, or a header listed in the dependency file written by the compiler (-MMD) is changed since it was
+ * compiled.
+ *
+ * @author XKTZ
+ * @date 2023-01-03
+ */
+final class ObjectCache {
+
+    /**
+     * Directory of objects under the directory of build manifests
+     */
+    static final String DIRECTORY = "objects";
+
+    /**
+     * Directory of objects
+     */
+    private final Path directory;
+
+    /**
+     * @param directory directory of objects
+     */
+    ObjectCache(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+    }
+
+    /**
+     * Files of a translation unit in cache
+     *
+     * @param artifact artifact the unit is linked into, units of different artifacts never share files
+     * @param tool     executable compiling the unit
+     * @param source   source of unit
+     * @param flags    flags compiling the unit
+     * @return unit
+     */
+    Unit unit(String artifact, String tool, Path source, List<String> flags) {
+        var digest = Digests.sha256();
+        Digests.update(digest, artifact);
+        Digests.update(digest, tool);
+        Digests.update(digest, source.toString());
+        flags.forEach(flag -> Digests.update(digest, flag));
+        var name = source.getFileName() + "-" + Digests.hex(digest).substring(0, 16);
+        return new Unit(source, tool, flags, directory.resolve(name + ".o"), directory.resolve(name + ".d"),
+                directory.resolve(name + ".stamp"));
+    }
+
+    /**
+     * The object of unit is compiled from the current contents of its source and headers
+     *
+     * @param unit unit
+     * @return up to date or not
+     */
+    boolean upToDate(Unit unit) {
+        try {
+            return Files.isRegularFile(unit.object()) && Files.isRegularFile(unit.stamp())
+                    && Files.readString(unit.stamp(), Environment.SYSTEM_CHARSET).equals(fingerprint(unit));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Forget the object of unit before it is compiled again
+     *
+     * @param unit unit
+     */
+    void invalidate(Unit unit) {
+        try {
+            Files.deleteIfExists(unit.stamp());
+        } catch (IOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+    }
+
+    /**
+     * Record that the object of unit is compiled from the current contents of its source and headers
+     *
+     * @param unit unit
+     */
+    void record(Unit unit) {
+        try {
+            Files.writeString(unit.stamp(), fingerprint(unit), Environment.SYSTEM_CHARSET);
+        } catch (IOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+    }
+
+    /**
+     * Hash of the flags and the contents of all the files the unit depends on
+     */
+    private static String fingerprint(Unit unit) throws IOException {
+        var digest = Digests.sha256();
+        BuildCache.updateExecutable(digest, unit.tool());
+        unit.flags().forEach(flag -> Digests.update(digest, flag));
+        BuildCache.updateContent(digest, unit.source());
+        for (var dependency : dependencies(unit)) {
+            BuildCache.updateContent(digest, dependency);
+        }
+        return Digests.hex(digest);
+    }
+
+    /**
+     * Files listed in the dependency file of unit, in the form of make rule "object: source header \ ..."
+     */
+    private static List<Path> dependencies(Unit unit) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isRegularFile(unit.dependencies())) {
+            return files;
+        }
+        var rule = Files.readString(unit.dependencies(), Environment.SYSTEM_CHARSET).replace("\\\r\n", " ")
+                .replace("\\\n", " ");
+        // the target ends at the first colon followed by a blank, drive letters are not followed by one
+        var colon = rule.indexOf(": ");
+        if (colon < 0) {
+            return files;
+        }
+        var name = new StringBuilder();
+        for (int i = colon + 2; i <= rule.length(); i++) {
+            var c = i < rule.length() ? rule.charAt(i) : ' ';
+            if (c == '\\' && i + 1 < rule.length() && rule.charAt(i + 1) == ' ') {
+                name.append(' ');
+                i++;
+            } else if (c == '$' && i + 1 < rule.length() && rule.charAt(i + 1) == '$') {
+                name.append('$');
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                if (!name.isEmpty()) {
+                    try {
+                        files.add(Path.of(name.toString()));
+                    } catch (InvalidPathException ignored) {
+                    }
+                    name.setLength(0);
+                }
+            } else {
+                name.append(c);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A translation unit
+     *
+     * @param source       source
+     * @param tool         executable compiling the unit
+     * @param flags        flags compiling the unit
+     * @param object       object compiled
+     * @param dependencies dependency file written by compiler
+     * @param stamp        fingerprint of the contents the object is compiled from
+     */
+    record Unit(Path source, String tool, List<String> flags, Path object, Path dependencies, Path stamp) {
+    }
+}
@@ -0,0 +1,182 @@
+package xktz.exam.lang.cpp;
+
+import xktz.exam.environment.Digests;
+import xktz.exam.environment.Environment;
+import xktz.exam.lang.BuildCache;
+import xktz.exam.lang.LanguageRuntime;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A header precompiled once for a compiler and its flags, then included into each compilation before the source.
+ * The header is wrapped in "pch.h", which is precompiled into "pch.h.gch" for GCC, found by GCC itself when "pch.h" is
+ * included, or "pch.h.pch" for Clang, given by -include-pch. The precompiled header is kept in a folder named by the
+ * hash of the compiler, the flags and the header, so that changing any of them precompiles it again.
+ *
+ * @author XKTZ
+ * @date 2023-01-04
+ */
+final class PrecompiledHeader {
+
+    /**
+     * Directory of precompiled headers under the directory of build manifests
+     */
+    static final String DIRECTORY = "pch";
+
+    /**
+     * Name of the header wrapping the precompiled one
+     */
+    private static final String WRAPPER = "pch.h";
+
+    /**
+     * File locked while the header is precompiled
+     */
+    private static final String LOCK = "pch.lock";
+
+    /**
+     * Monitors of the folders of headers, a file could be locked only once in a process
+     */
+    private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    /**
+     * Time limit precompiling the header
+     */
+    private static final int COMPILE_LIMIT = 60000;
+
+    /**
+     * Folder of the header
+     */
+    private final Path folder;
+
+    /**
+     * Compiler
+     */
+    private final String compiler;
+
+    /**
+     * Line including the header
+     */
+    private final String include;
+
+    /**
+     * Flags compiling the sources, the header is compiled by the same ones
+     */
+    private final List<String> flags;
+
+    /**
+     * @param directory          directory of precompiled headers
+     * @param compiler           compiler
+     * @param header             header, a system header or a file
+     * @param file               the file of header, null if it is a system header
+     * @param includeDirectories include directories
+     * @param flags              flags compiling the sources
+     */
+    PrecompiledHeader(Path directory, String compiler, String header, Path file, List<Path> includeDirectories,
+                      List<String> flags) {
+        this.compiler = compiler;
+        this.flags = flags;
+        this.include = file == null ? "#include <%s>".formatted(header) : "#include \"%s\"".formatted(file);
+        var digest = Digests.sha256();
+        BuildCache.updateExecutable(digest, compiler);
+        Digests.update(digest, include);
+        flags.forEach(flag -> Digests.update(digest, flag));
+        if (file != null) {
+            for (var included : IncludeScanner.closure(List.of(file), includeDirectories)) {
+                BuildCache.updateContent(digest, included);
+            }
+        }
+        this.folder = directory.resolve(Digests.hex(digest).substring(0, 16));
+    }
+
+    /**
+     * Precompile the header if it is not there, then give the flags using it
+     *
+     * @param environment environment compiling the header
+     * @param output      output of commands
+     * @return flags using the header, empty if it could not be precompiled
+     */
+    List<String> prepare(Environment environment, Consumer<String> output) {
+        var wrapper = folder.resolve(WRAPPER);
+        var compiled = folder.resolve(WRAPPER + (clang() ? ".pch" : ".gch"));
+        if (Files.isRegularFile(compiled)) {
+            return using(wrapper, compiled);
+        }
+        try {
+            Files.createDirectories(folder);
+            // runtimes of this process wait on the monitor, other processes on the lock of file
+            synchronized (MONITORS.computeIfAbsent(folder, key -> new Object())) {
+                try (var channel = FileChannel.open(folder.resolve(LOCK),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    var lock = channel.lock();
+                    try {
+                        if (!Files.isRegularFile(compiled) && !precompile(environment, wrapper, compiled, output)) {
+                            return List.of();
+                        }
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+        return using(wrapper, compiled);
+    }
+
+    /**
+     * Precompile the header, holding the lock of folder
+     *
+     * @return precompiled or not
+     */
+    private boolean precompile(Environment environment, Path wrapper, Path compiled, Consumer<String> output)
+            throws IOException {
+        // the wrapper may be included by a compilation going on, it is never written again once it is there
+        if (!Files.isRegularFile(wrapper)) {
+            var temporary = Files.createTempFile(folder, WRAPPER, ".tmp");
+            Files.writeString(temporary, include + "\n", Environment.SYSTEM_CHARSET);
+            Files.move(temporary, wrapper, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        var temporary = Files.createTempFile(folder, WRAPPER, ".tmp");
+        List<String> commands = new ArrayList<>();
+        commands.add(compiler);
+        commands.add("-x");
+        commands.add(compiler.contains("++") ? "c++-header" : "c-header");
+        commands.add(wrapper.toString());
+        commands.add("-o");
+        commands.add(temporary.toString());
+        commands.addAll(flags);
+        output.accept(String.join(" ", commands));
+        var result = environment.executeCommand(COMPILE_LIMIT, commands.toArray(String[]::new));
+        if (result.exitCode() != Environment.EXIT_SUCCESS) {
+            Files.deleteIfExists(temporary);
+            output.accept("Precompiled header is not used: " + new String(result.stderr(), Environment.SYSTEM_CHARSET));
+            return false;
+        }
+        Files.move(temporary, compiled, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * Flags using the header
+     */
+    private List<String> using(Path wrapper, Path compiled) {
+        return clang() ? List.of("-include-pch", compiled.toString()) : List.of("-include", wrapper.toString());
+    }
+
+    /**
+     * The compiler is Clang, otherwise it is taken as GCC
+     */
+    private boolean clang() {
+        return Path.of(compiler).getFileName().toString().contains("clang");
+    }
+}
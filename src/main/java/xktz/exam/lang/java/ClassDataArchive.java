@@ -0,0 +1,210 @@
+package xktz.exam.lang.java;
+
+import org.apache.commons.io.FileUtils;
+import xktz.exam.environment.Digests;
+import xktz.exam.environment.Environment;
+import xktz.exam.lang.BuildCache;
+import xktz.exam.lang.LanguageRuntime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Class data sharing archive of a java project, so that the JVM running a case maps the classes it loads from the
+ * archive instead of parsing and verifying them again. Classes in folders are never archived by the JVM, so the
+ * classes compiled are packed into a jar first. The archive is dumped at the exit of a training run of the main class,
+ * with -XX:ArchiveClassesAtExit, so it holds the classes loaded on the input of training run.
+ * <p>
+ * The jar and the archive are kept in a folder named by the hash of the classes, the class path, the flags and the
+ * training input, so that changing any of them creates them again. Folders of classes compiled before are deleted.
+ *
+ * @author XKTZ
+ * @date 2023-01-07
+ */
+final class ClassDataArchive {
+
+    /**
+     * Directory of archives under the directory of build manifests
+     */
+    static final String DIRECTORY = "cds";
+
+    private static final String JAR = "classes.jar";
+
+    private static final String ARCHIVE = "classes.jsa";
+
+    /**
+     * Folders of archives of the out folder
+     */
+    private final Path directory;
+
+    /**
+     * Folder of archive of the current classes
+     */
+    private final Path folder;
+
+    /**
+     * Out folder
+     */
+    private final Path out;
+
+    /**
+     * Class path
+     */
+    private final List<Path> classPath;
+
+    /**
+     * Flags of JVM
+     */
+    private final List<String> flags;
+
+    /**
+     * Input of training run
+     */
+    private final byte[] training;
+
+    /**
+     * @param directory directory of archives
+     * @param out       out folder
+     * @param classPath class path
+     * @param flags     flags of JVM running the cases
+     * @param training  input of training run
+     */
+    ClassDataArchive(Path directory, Path out, List<Path> classPath, List<String> flags, byte[] training) {
+        this.out = out;
+        this.classPath = classPath;
+        this.flags = flags;
+        this.training = training;
+        var outDigest = Digests.sha256();
+        Digests.update(outDigest, out.toString());
+        this.directory = directory.resolve(Digests.hex(outDigest).substring(0, 16));
+
+        var digest = Digests.sha256();
+        BuildCache.updateExecutable(digest, "java");
+        flags.forEach(flag -> Digests.update(digest, flag));
+        digest.update(training);
+        try (Stream<Path> files = Files.isDirectory(out) ? Files.walk(out) : Stream.empty()) {
+            for (var file : files.filter(Files::isRegularFile).sorted().toList()) {
+                Digests.update(digest, out.relativize(file).toString());
+                BuildCache.updateContent(digest, file);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+        classPath.forEach(entry -> BuildCache.updateStamp(digest, entry));
+        this.folder = this.directory.resolve(Digests.hex(digest).substring(0, 16));
+    }
+
+    /**
+     * Create the archive by a training run if it is not there
+     *
+     * @param environment environment of training run
+     * @param main        main class
+     * @param timeLimit   time limit of training run
+     * @param output      output of commands
+     */
+    void prepare(Environment environment, String main, long timeLimit, Consumer<String> output) {
+        var jar = folder.resolve(JAR);
+        var archive = folder.resolve(ARCHIVE);
+        if (Files.isRegularFile(archive)) {
+            return;
+        }
+        try {
+            clearOthers();
+            Files.createDirectories(folder);
+            // the archive records the size and time of jar, it is never written again once archived
+            if (!Files.isRegularFile(jar)) {
+                var temporary = Files.createTempFile(folder, JAR, ".tmp");
+                pack(temporary);
+                Files.move(temporary, jar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            var temporary = folder.resolve(ARCHIVE + "." + ProcessHandle.current().pid() + ".tmp");
+            List<String> commands = new ArrayList<>();
+            commands.add("java");
+            commands.add("-XX:ArchiveClassesAtExit=" + temporary);
+            commands.addAll(arguments(jar));
+            commands.add(main);
+            output.accept(String.join(" ", commands));
+            try {
+                environment.executeCommand(out.toString(), timeLimit, training, commands.toArray(String[]::new));
+            } catch (Environment.TimeoutException | Environment.EnvironmentExecutionException e) {
+                output.accept("Training run failed: " + e.getMessage());
+            }
+            if (!Files.isRegularFile(temporary)) {
+                output.accept("Class data archive is not used");
+                return;
+            }
+            Files.move(temporary, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+    }
+
+    /**
+     * Arguments of java running the main class with the archive
+     *
+     * @return arguments before the main class, empty if the archive is not created
+     */
+    List<String> arguments() {
+        var archive = folder.resolve(ARCHIVE);
+        if (!Files.isRegularFile(archive)) {
+            return List.of();
+        }
+        List<String> arguments = new ArrayList<>();
+        arguments.add("-XX:SharedArchiveFile=" + archive);
+        // an archive not matching the JVM is ignored, its warnings would go into the output of case
+        arguments.add("-Xlog:cds=off,cds+dynamic=off");
+        arguments.addAll(arguments(folder.resolve(JAR)));
+        return arguments;
+    }
+
+    /**
+     * Flags and class path of java
+     */
+    private List<String> arguments(Path jar) {
+        List<String> arguments = new ArrayList<>(flags);
+        arguments.add("-cp");
+        List<String> entries = new ArrayList<>();
+        entries.add(jar.toString());
+        classPath.forEach(entry -> entries.add(entry.toString()));
+        arguments.add(String.join(File.pathSeparator, entries));
+        return arguments;
+    }
+
+    /**
+     * Pack the classes into a jar
+     */
+    private void pack(Path jar) throws IOException {
+        try (var stream = new JarOutputStream(Files.newOutputStream(jar));
+             Stream<Path> files = Files.walk(out)) {
+            for (var file : files.filter(Files::isRegularFile).sorted().toList()) {
+                stream.putNextEntry(new JarEntry(out.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, stream);
+                stream.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Delete the archives of classes compiled before
+     */
+    private void clearOthers() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> folders = Files.list(directory)) {
+            for (var other : folders.filter(other -> !other.equals(folder)).toList()) {
+                FileUtils.deleteQuietly(other.toFile());
+            }
+        }
+    }
+}
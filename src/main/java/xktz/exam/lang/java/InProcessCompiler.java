@@ -0,0 +1,293 @@
+package xktz.exam.lang.java;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import xktz.exam.environment.Digests;
+import xktz.exam.environment.Environment;
+import xktz.exam.lang.LanguageRuntime;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Compile the java sources by the compiler of the running JVM, without starting javac.
+ * Like javac, the main source is compiled with the source folder as source path, so only the sources it uses are
+ * compiled. Once compiled, a source is kept in a manifest with its hash and classes, and only the sources of manifest
+ * changed since last compilation are compiled again, together with the sources naming a class of them. The classes of
+ * the others are taken from the out folder. The classes are compiled into memory, and written into the out folder only
+ * if they are different from the ones there.
+ *
+ * @author XKTZ
+ * @date 2023-01-06
+ */
+final class InProcessCompiler {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * Source folder
+     */
+    private final Path src;
+
+    /**
+     * Out folder
+     */
+    private final Path out;
+
+    /**
+     * Main source, under source folder
+     */
+    private final String main;
+
+    /**
+     * Class path
+     */
+    private final List<Path> classPath;
+
+    /**
+     * Manifest of sources compiled
+     */
+    private final Path manifestFile;
+
+    /**
+     * @param src          source folder
+     * @param out          out folder
+     * @param main         main source, under source folder
+     * @param classPath    class path
+     * @param manifestFile manifest of sources compiled
+     */
+    InProcessCompiler(Path src, Path out, String main, List<Path> classPath, Path manifestFile) {
+        this.src = src;
+        this.out = out;
+        this.main = main;
+        this.classPath = classPath;
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * The running JVM has a compiler or not, it does not if it is only a runtime image
+     *
+     * @return available or not
+     */
+    static boolean available() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Compile the sources changed
+     *
+     * @return result, the diagnostics of compiler as stderr
+     */
+    Environment.SystemOutput compile() {
+        try {
+            return compileChanged();
+        } catch (IOException | UncheckedIOException e) {
+            throw new LanguageRuntime.CompilationException(e);
+        }
+    }
+
+    private Environment.SystemOutput compileChanged() throws IOException {
+        var manifest = Files.isRegularFile(manifestFile)
+                ? OBJECT_MAPPER.readValue(manifestFile.toFile(), Manifest.class) : new Manifest();
+        // hash of each source now
+        Map<String, String> hashes = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(src)) {
+            for (var file : files.filter(file -> file.toString().endsWith(".java")).toList()) {
+                var digest = Digests.sha256();
+                Digests.update(digest, file);
+                hashes.put(src.relativize(file).toString(), Digests.hex(digest));
+            }
+        }
+
+        // sources never compiled are not used by main, unless a source compiled now uses them
+        Set<String> changed = new TreeSet<>();
+        hashes.forEach((source, hash) -> {
+            var unit = manifest.sources.get(source);
+            if (unit == null ? source.equals(main) : !unit.hash.equals(hash)
+                    || !unit.classes.stream().allMatch(c -> Files.isRegularFile(out.resolve(c)))) {
+                changed.add(source);
+            }
+        });
+        Set<String> removed = new TreeSet<>(manifest.sources.keySet());
+        removed.removeAll(hashes.keySet());
+        for (var source : removed) {
+            for (var classFile : manifest.sources.remove(source).classes) {
+                Files.deleteIfExists(out.resolve(classFile));
+            }
+        }
+        Set<String> compiledBefore = new TreeSet<>(manifest.sources.keySet());
+        compiledBefore.retainAll(hashes.keySet());
+        addDependents(changed, removed, compiledBefore, manifest);
+        if (changed.isEmpty()) {
+            return new Environment.SystemOutput(Environment.EXIT_SUCCESS, new byte[0], new byte[0]);
+        }
+
+        var compiler = ToolProvider.getSystemJavaCompiler();
+        var diagnostics = new StringWriter();
+        Map<String, CompiledClass> compiled = new ConcurrentHashMap<>();
+        boolean success;
+        try (var standard = compiler.getStandardFileManager(null, null, Environment.SYSTEM_CHARSET)) {
+            List<Path> path = new ArrayList<>();
+            path.add(out);
+            path.addAll(classPath);
+            standard.setLocationFromPaths(StandardLocation.CLASS_PATH, path);
+            // sources used but not given are compiled from the source path, if they are newer than their classes
+            standard.setLocationFromPaths(StandardLocation.SOURCE_PATH, List.of(src));
+            var manager = new MemoryFileManager(standard, compiled);
+            var units = standard.getJavaFileObjectsFromPaths(changed.stream().map(src::resolve).toList());
+            success = compiler.getTask(diagnostics, manager, null, List.of("-proc:none"), null, units).call();
+        }
+        var messages = diagnostics.toString().getBytes(Environment.SYSTEM_CHARSET);
+        if (!success) {
+            return new Environment.SystemOutput(1, new byte[0], messages);
+        }
+
+        // classes of each source compiled, given or from the source path
+        Map<String, List<String>> classes = new HashMap<>();
+        changed.forEach(source -> classes.put(source, new ArrayList<>()));
+        for (var entry : compiled.entrySet()) {
+            var source = src.relativize(entry.getValue().source()).toString();
+            var classFile = entry.getKey().replace('.', '/') + JavaFileObject.Kind.CLASS.extension;
+            classes.computeIfAbsent(source, s -> new ArrayList<>()).add(classFile);
+            var target = out.resolve(classFile);
+            var bytes = entry.getValue().bytes().toByteArray();
+            // classes not changed are left untouched
+            if (!Files.isRegularFile(target) || !Arrays.equals(Files.readAllBytes(target), bytes)) {
+                Files.createDirectories(target.getParent());
+                Files.write(target, bytes);
+            }
+        }
+        for (var source : classes.keySet()) {
+            var unit = manifest.sources.get(source);
+            if (unit != null) {
+                for (var classFile : unit.classes) {
+                    if (!classes.get(source).contains(classFile)) {
+                        Files.deleteIfExists(out.resolve(classFile));
+                    }
+                }
+            }
+            var updated = new Unit();
+            updated.hash = hashes.get(source);
+            updated.classes = classes.get(source).stream().sorted().toList();
+            manifest.sources.put(source, updated);
+        }
+        Files.createDirectories(manifestFile.getParent());
+        OBJECT_MAPPER.writeValue(manifestFile.toFile(), manifest);
+        return new Environment.SystemOutput(Environment.EXIT_SUCCESS, new byte[0], messages);
+    }
+
+    /**
+     * Add the sources naming a class of the changed or removed sources, until no more are found.
+     * Constants and signatures of a class are compiled into the classes using it, so they are compiled again.
+     */
+    private void addDependents(Set<String> changed, Set<String> removed, Set<String> sources, Manifest manifest)
+            throws IOException {
+        Set<String> names = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(changed);
+        pending.addAll(removed);
+        // classes of removed sources are only known from the manifest read before they were removed
+        for (var source : removed) {
+            names.add(simpleName(source));
+        }
+        while (!pending.isEmpty()) {
+            var source = pending.pop();
+            var unit = manifest.sources.get(source);
+            names.add(simpleName(source));
+            if (unit != null) {
+                unit.classes.forEach(classFile -> names.add(simpleName(classFile)));
+            }
+            var pattern = Pattern.compile("\\b(" + String.join("|", names) + ")\\b");
+            for (var other : sources) {
+                if (!changed.contains(other) && pattern.matcher(Files.readString(src.resolve(other))).find()) {
+                    changed.add(other);
+                    pending.push(other);
+                }
+            }
+        }
+    }
+
+    /**
+     * Simple name of the top level class of a source or class file
+     */
+    private static String simpleName(String file) {
+        var name = Path.of(file).getFileName().toString();
+        name = name.substring(0, name.lastIndexOf('.'));
+        var nested = name.indexOf('$');
+        return Pattern.quote(nested < 0 ? name : name.substring(0, nested));
+    }
+
+    /**
+     * File manager keeping the classes compiled in memory
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        /**
+         * Classes compiled by binary name
+         */
+        private final Map<String, CompiledClass> compiled;
+
+        MemoryFileManager(StandardJavaFileManager manager, Map<String, CompiledClass> compiled) {
+            super(manager);
+            this.compiled = compiled;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) throws IOException {
+            if (kind != JavaFileObject.Kind.CLASS || sibling == null) {
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+            var source = Path.of(sibling.toUri());
+            return new SimpleJavaFileObject(URI.create("memory:///" + className.replace('.', '/') + kind.extension),
+                    kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    var bytes = new ByteArrayOutputStream();
+                    compiled.put(className, new CompiledClass(source, bytes));
+                    return bytes;
+                }
+            };
+        }
+    }
+
+    /**
+     * Class compiled
+     *
+     * @param source source of class
+     * @param bytes  bytes of class
+     */
+    private record CompiledClass(Path source, ByteArrayOutputStream bytes) {
+    }
+
+    /**
+     * Sources compiled by their path under source folder
+     */
+    public static class Manifest {
+        public Map<String, Unit> sources = new TreeMap<>();
+    }
+
+    /**
+     * A source compiled
+     */
+    public static class Unit {
+        /**
+         * Hash of source
+         */
+        public String hash;
+
+        /**
+         * Class files compiled from source, under out folder
+         */
+        public List<String> classes = List.of();
+    }
+}
@@ -1,13 +1,25 @@
 package xktz.exam.lang.java;
 
+import xktz.exam.environment.Digests;
 import xktz.exam.environment.Environment;
+import xktz.exam.environment.PersistentProcess;
+import xktz.exam.lang.BuildCache;
 import xktz.exam.lang.LanguageRuntime;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Runtime for java
@@ -27,6 +39,21 @@ public class JavaRuntime extends LanguageRuntime {
 
     private static final String KEY_TIME_LIMIT = "timeLimit";
 
+    private static final String KEY_WORKER = "worker";
+
+    private static final String KEY_IN_PROCESS = "inProcess";
+
+    private static final String KEY_CDS = "cds";
+
+    private static final String KEY_CDS_TRAINING = "cdsTraining";
+
+    private static final String KEY_JVM_FLAGS = "jvmFlags";
+
+    /**
+     * Time waited for a worker to answer after the time limit of case, before it is killed
+     */
+    private static final long WORKER_GRACE = 1000;
+
     /**
      * Source directory
      */
@@ -57,6 +84,41 @@ public class JavaRuntime extends LanguageRuntime {
      */
     private final int timeLimit;
 
+    /**
+     * Run the cases in JVMs staying alive, instead of starting a JVM for each case
+     */
+    private final boolean worker;
+
+    /**
+     * Compile by the compiler of the examiner JVM instead of javac, only the sources changed are compiled again
+     */
+    private final boolean inProcess;
+
+    /**
+     * Run the cases with a class data sharing archive created by a training run
+     */
+    private final boolean cds;
+
+    /**
+     * Input file of the training run, empty for an empty input
+     */
+    private final String cdsTraining;
+
+    /**
+     * Flags of the JVMs running the cases
+     */
+    private final List<String> jvmFlags;
+
+    /**
+     * Arguments of java before the main class using the class data sharing archive, null before looking for it
+     */
+    private volatile List<String> archiveArguments = null;
+
+    /**
+     * Workers not being used. A worker is started for each thread running at the same time.
+     */
+    private final Queue<PersistentProcess> idleWorkers = new ConcurrentLinkedQueue<>();
+
     public JavaRuntime(String workDirectory, String projectDirectory,
                        Environment environment, Map<String, Object> config) {
         super(workDirectory, projectDirectory, environment, config);
@@ -74,10 +136,50 @@ public class JavaRuntime extends LanguageRuntime {
         });
         timeLimit = property(KEY_TIME_LIMIT, new PropertyType<>() {
         });
+        worker = property(KEY_WORKER, new PropertyType<>() {
+        });
+        inProcess = property(KEY_IN_PROCESS, new PropertyType<>() {
+        });
+        cds = property(KEY_CDS, new PropertyType<>() {
+        });
+        var trainingProperty = property(KEY_CDS_TRAINING, new PropertyType<String>() {
+        });
+        cdsTraining = trainingProperty.isEmpty() || new File(trainingProperty).isAbsolute() ? trainingProperty
+                : projectFile(trainingProperty);
+        jvmFlags = property(KEY_JVM_FLAGS, new PropertyType<>() {
+        });
+        if (worker) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> idleWorkers.forEach(PersistentProcess::close)));
+        }
     }
 
     @Override
     public Environment.SystemOutput compile() {
+        var mainClass = Path.of(canonicalPath(out), main.replace(".", File.separator) + ".class");
+        var result = cachedBuild(mainClass, this::buildFingerprint, () -> {
+            if (inProcess && InProcessCompiler.available()) {
+                outputCommand("Compiling " + canonicalPath(src) + " in process");
+                return inProcessCompiler().compile();
+            }
+            var commands = compileCommand();
+            outputCommand(String.join(" ", commands));
+            return environment.executeCommand(compileLimit,
+                    commands.toArray(String[]::new));
+        });
+        if (cds && result.exitCode() == Environment.EXIT_SUCCESS) {
+            var archive = classDataArchive();
+            archive.prepare(environment, main, compileLimit, this::outputCommand);
+            archiveArguments = archive.arguments();
+        }
+        return result;
+    }
+
+    /**
+     * Command compiling the main class, with the classes it uses in source path
+     *
+     * @return command
+     */
+    private List<String> compileCommand() {
         List<String> commands = new ArrayList<>();
         var mainPath = src + File.separator + main.replace(".", File.separator) + ".java";
         commands.add("javac");
@@ -90,21 +192,180 @@ public class JavaRuntime extends LanguageRuntime {
         commands.add(mainPath);
         commands.add("-d");
         commands.add(canonicalPath(out));
-        outputCommand(String.join(" ", commands));
-        return environment.executeCommand(compileLimit,
-                commands.toArray(String[]::new));
+        return commands;
+    }
+
+    /**
+     * Class data sharing archive of the current classes
+     *
+     * @return archive
+     */
+    private ClassDataArchive classDataArchive() {
+        byte[] training;
+        try {
+            training = cdsTraining.isEmpty() ? new byte[0] : Files.readAllBytes(Path.of(cdsTraining));
+        } catch (IOException e) {
+            throw new CompilationException(e);
+        }
+        return new ClassDataArchive(Path.of(workDirectory, BuildCache.DIRECTORY, ClassDataArchive.DIRECTORY),
+                Path.of(canonicalPath(out)), classPath.stream().map(entry -> Path.of(canonicalPath(entry))).toList(),
+                jvmFlags, training);
+    }
+
+    /**
+     * Compiler in the examiner JVM, its manifest is named by the source and out folders
+     *
+     * @return compiler
+     */
+    private InProcessCompiler inProcessCompiler() {
+        var digest = Digests.sha256();
+        Digests.update(digest, canonicalPath(src));
+        Digests.update(digest, canonicalPath(out));
+        var manifest = Path.of(workDirectory, BuildCache.DIRECTORY, "java", Digests.hex(digest).substring(0, 16) + ".json");
+        return new InProcessCompiler(Path.of(canonicalPath(src)), Path.of(canonicalPath(out)),
+                main.replace(".", File.separator) + ".java", classPath.stream().map(entry -> Path.of(canonicalPath(entry))).toList(), manifest);
+    }
+
+    /**
+     * Fingerprint of everything the classes are built from: javac, the command, all the sources in source path and
+     * the class path
+     *
+     * @return fingerprint
+     */
+    private String buildFingerprint() {
+        var digest = Digests.sha256();
+        BuildCache.updateExecutable(digest, "javac");
+        compileCommand().forEach(part -> Digests.update(digest, part));
+        Digests.update(digest, Boolean.toString(inProcess));
+        try (Stream<Path> files = Files.walk(Path.of(canonicalPath(src)))) {
+            for (var file : files.filter(file -> file.toString().endsWith(".java")).sorted().toList()) {
+                BuildCache.updateContent(digest, file);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new CompilationException(e);
+        }
+        for (var entry : classPath) {
+            BuildCache.updateStamp(digest, Path.of(canonicalPath(entry)));
+        }
+        return Digests.hex(digest);
     }
 
     @Override
-    public Environment.SystemOutput run(byte[] input) {
-        return environment.executeCommand(out,
+    public Environment.SystemOutput run(byte[] input, long timeLimit) {
+        if (worker) {
+            return runInWorker(input, timeLimit);
+        }
+        return environment.executeCommand(runDirectory(),
                 timeLimit, input,
-                "java", main);
+                command());
+    }
+
+    /**
+     * Run a case in a worker JVM. If the worker died in the case, for example by System.exit, or the case does not
+     * stop at its time limit, the case runs again in its own JVM.
+     *
+     * @param input     input
+     * @param timeLimit time limit
+     * @return result
+     */
+    private Environment.SystemOutput runInWorker(byte[] input, long timeLimit) {
+        var process = idleWorkers.poll();
+        if (process == null) {
+            process = new PersistentProcess(() -> environment.start(runDirectory(), workerCommand()));
+        }
+        try {
+            var answer = process.exchange(timeLimit + WORKER_GRACE, (stdin, stdout) -> {
+                stdin.write((timeLimit + "\n").getBytes(StandardCharsets.US_ASCII));
+                PersistentProcess.writeFrame(stdin, input);
+                stdin.flush();
+                var status = PersistentProcess.readLine(stdout).trim();
+                return new WorkerAnswer(status, PersistentProcess.readFrame(stdout), PersistentProcess.readFrame(stdout));
+            });
+            if (answer.status().equals(JavaWorker.STUCK)) {
+                // a case not stopping may be blocked in the worker itself, e.g. reading FileDescriptor.in
+                process.destroy();
+                return environment.executeCommand(runDirectory(), timeLimit, input, command());
+            }
+            if (answer.status().equals(JavaWorker.TIMED_OUT)) {
+                throw new Environment.TimeoutException(timeLimit, input,
+                        new Environment.SystemOutput(-1, answer.stdout(), answer.stderr()));
+            }
+            return new Environment.SystemOutput(Integer.parseInt(answer.status()), answer.stdout(), answer.stderr());
+        } catch (Environment.EnvironmentExecutionException | NumberFormatException e) {
+            process.destroy();
+            return environment.executeCommand(runDirectory(), timeLimit, input, command());
+        } finally {
+            idleWorkers.add(process);
+        }
+    }
+
+    /**
+     * Command starting a worker JVM, the worker class is loaded from where the examiner is
+     *
+     * @return command
+     */
+    private String[] workerCommand() {
+        String location;
+        try {
+            location = Path.of(JavaWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        List<String> commands = new ArrayList<>();
+        commands.add("java");
+        commands.addAll(jvmFlags);
+        commands.addAll(List.of("-Djava.security.manager=allow", "-cp", location,
+                JavaWorker.class.getName(), main, canonicalPath(out)));
+        commands.addAll(classPath.stream().map(LanguageRuntime::canonicalPath).toList());
+        return commands.toArray(String[]::new);
+    }
+
+    @Override
+    public String[] command() {
+        List<String> commands = new ArrayList<>();
+        commands.add("java");
+        var arguments = archiveArguments;
+        if (arguments == null) {
+            // the classes may be built by an examiner run before, then the archive is there already
+            arguments = cds ? classDataArchive().arguments() : List.of();
+            archiveArguments = arguments;
+        }
+        commands.addAll(arguments.isEmpty() ? jvmFlags : arguments);
+        commands.add(main);
+        return commands.toArray(String[]::new);
+    }
+
+    /**
+     * The classes are found by class name, so all the files in the out directory are put into the fingerprint
+     */
+    @Override
+    public String fingerprint() {
+        var digest = Digests.sha256();
+        Digests.update(digest, super.fingerprint());
+        try (Stream<Path> files = Files.walk(Path.of(out))) {
+            for (var file : files.filter(Files::isRegularFile).sorted().toList()) {
+                Digests.update(digest, Path.of(out).relativize(file).toString());
+                Digests.update(digest, file);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new Environment.EnvironmentExecutionException(e);
+        }
+        return Digests.hex(digest);
+    }
+
+    @Override
+    public String runDirectory() {
+        return out;
+    }
+
+    @Override
+    public long timeLimit() {
+        return timeLimit;
     }
 
     @Override
     public void runInherited(byte[] input) {
-        environment.executeInheritIOCommand("java", main);
+        environment.executeInheritIOCommand(command());
     }
 
     @Override
@@ -112,10 +373,25 @@ public class JavaRuntime extends LanguageRuntime {
         return Map.of(
                 "compileLimit", 10000,
                 "timeLimit", 1000,
-                "cp", new ArrayList<>()
+                "cp", new ArrayList<>(),
+                "worker", false,
+                "inProcess", false,
+                "cds", false,
+                "cdsTraining", "",
+                "jvmFlags", new ArrayList<>()
         );
     }
 
+    /**
+     * Answer of a worker to a case
+     *
+     * @param status exit code, or timed out
+     * @param stdout stdout
+     * @param stderr stderr
+     */
+    private record WorkerAnswer(String status, byte[] stdout, byte[] stderr) {
+    }
+
     /**
      * Initialize configuration
      *
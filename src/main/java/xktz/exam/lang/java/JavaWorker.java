@@ -0,0 +1,206 @@
+package xktz.exam.lang.java;
+
+import xktz.exam.environment.PersistentProcess;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Main class of a JVM staying alive to run the main class of a java project on many cases, so that the JVM is started
+ * and warmed up only once. Each case runs in a class loader of its own, so that the static states of the project
+ * start fresh, with System.in, System.out and System.err replaced by the case.
+ * <p>
+ * For each case it gets, on stdin, a line of time limit in milliseconds and a frame of input. It answers a line of
+ * exit code, or "T" if the case timed out, then a frame of stdout and a frame of stderr. A case still running after
+ * being interrupted at its time limit leaves the JVM unusable, so it is answered by "S" and the worker exits.
+ *
+ * @author XKTZ
+ * @date 2023-01-05
+ */
+public class JavaWorker {
+
+    /**
+     * Answer of a case timed out and stopped by interrupting it
+     */
+    public static final String TIMED_OUT = "T";
+
+    /**
+     * Answer of a case timed out and still running, the worker exits after answering it
+     */
+    public static final String STUCK = "S";
+
+    /**
+     * Time given to a case to stop once it is interrupted
+     */
+    private static final long INTERRUPT_GRACE = 100;
+
+    /**
+     * Run the cases
+     *
+     * @param args main class, then the class path of project
+     */
+    public static void main(String[] args) throws IOException {
+        var main = args[0];
+        List<URL> classPath = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            classPath.add(Path.of(args[i]).toUri().toURL());
+        }
+        var requests = new BufferedInputStream(new FileInputStream(FileDescriptor.in));
+        var answers = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+        var exits = new ExitTrap();
+        trapExits(exits);
+
+        while (true) {
+            String header;
+            try {
+                header = PersistentProcess.readLine(requests).trim();
+            } catch (EOFException e) {
+                break;
+            }
+            var timeLimit = Long.parseLong(header);
+            var input = PersistentProcess.readFrame(requests);
+            var result = runCase(main, classPath, input, timeLimit);
+            answers.write((result.status() + "\n").getBytes(StandardCharsets.US_ASCII));
+            PersistentProcess.writeFrame(answers, result.stdout());
+            PersistentProcess.writeFrame(answers, result.stderr());
+            answers.flush();
+            if (result.stuck()) {
+                break;
+            }
+        }
+        exits.leave();
+        System.exit(0);
+    }
+
+    /**
+     * Install the trap of System.exit
+     */
+    // a security manager is the only way to stop System.exit of a case, the worker is started with it allowed
+    @SuppressWarnings("removal")
+    private static void trapExits(ExitTrap exits) {
+        try {
+            System.setSecurityManager(exits);
+        } catch (UnsupportedOperationException ignored) {
+            // without the trap a case calling System.exit ends the worker, and the case runs again in its own JVM
+        }
+    }
+
+    /**
+     * Run the main class on a case
+     */
+    private static Result runCase(String main, List<URL> classPath, byte[] input, long timeLimit) {
+        var stdout = new ByteArrayOutputStream();
+        var stderr = new ByteArrayOutputStream();
+        var in = System.in;
+        var out = System.out;
+        var err = System.err;
+        var caseOut = new PrintStream(stdout, false);
+        var caseErr = new PrintStream(stderr, true);
+        System.setIn(new ByteArrayInputStream(input));
+        System.setOut(caseOut);
+        System.setErr(caseErr);
+        var status = new int[]{0};
+        try (var loader = new URLClassLoader(classPath.toArray(URL[]::new), ClassLoader.getPlatformClassLoader())) {
+            var thread = new Thread(() -> {
+                try {
+                    var method = Class.forName(main, true, loader).getMethod("main", String[].class);
+                    method.invoke(null, (Object) new String[0]);
+                } catch (InvocationTargetException e) {
+                    var cause = e.getCause();
+                    if (cause instanceof ExitTrap.Exit exit) {
+                        status[0] = exit.status;
+                    } else {
+                        System.err.print("Exception in thread \"main\" ");
+                        cause.printStackTrace();
+                        status[0] = 1;
+                    }
+                } catch (ExitTrap.Exit exit) {
+                    status[0] = exit.status;
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    System.err.println("Error: could not run main class " + main + ": " + e);
+                    status[0] = 1;
+                }
+            }, "main");
+            thread.setContextClassLoader(loader);
+            thread.start();
+            thread.join(timeLimit);
+            if (thread.isAlive()) {
+                thread.interrupt();
+                thread.join(INTERRUPT_GRACE);
+                caseOut.flush();
+                var stuck = thread.isAlive();
+                return new Result(stuck ? STUCK : TIMED_OUT, stdout.toByteArray(), stderr.toByteArray(), stuck);
+            }
+            caseOut.flush();
+            return new Result(Integer.toString(status[0]), stdout.toByteArray(), stderr.toByteArray(), false);
+        } catch (InterruptedException | IOException e) {
+            return new Result("1", stdout.toByteArray(), e.toString().getBytes(StandardCharsets.UTF_8), true);
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    /**
+     * Result of a case
+     *
+     * @param status exit code, or timed out
+     * @param stdout stdout
+     * @param stderr stderr
+     * @param stuck  the case is still running
+     */
+    private record Result(String status, byte[] stdout, byte[] stderr, boolean stuck) {
+    }
+
+    /**
+     * Turn System.exit of a case into an exception ending its main, everything else is permitted
+     */
+    // deprecated for removal, but nothing else intercepts System.exit on the JDKs supported
+    @SuppressWarnings("removal")
+    private static class ExitTrap extends SecurityManager {
+
+        /**
+         * The worker itself is exiting
+         */
+        private volatile boolean leaving = false;
+
+        @Override
+        public void checkPermission(Permission perm) {
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+        }
+
+        @Override
+        public void checkExit(int status) {
+            if (!leaving) {
+                throw new Exit(status);
+            }
+        }
+
+        void leave() {
+            leaving = true;
+        }
+
+        /**
+         * System.exit called by a case
+         */
+        private static class Exit extends SecurityException {
+            private final int status;
+
+            Exit(int status) {
+                super("System.exit(%d)".formatted(status));
+                this.status = status;
+            }
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package xktz.exam.lang.text;
+
+import xktz.exam.lang.LanguageRuntime;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A declarative template of test cases. The template is a list of lines, a line is a list of items printed separated
+ * by spaces, or a single item, or {"repeat": count, "lines": [...]} printing its lines count times. An item is a
+ * number or a string printed as it is, or an object of one of the kinds:
+ * <ul>
+ *     <li>{"int": [min, max], "name": "n"}: a random integer in [min, max], kept as variable "n" if named</li>
+ *     <li>{"value": "n"}: value of an expression</li>
+ *     <li>{"range": [from, to]}: the integers from "from" to "to"</li>
+ *     <li>{"array": length, "min": min, "max": max, "distinct": false, "sorted": false}: random integers</li>
+ *     <li>{"permutation": n, "base": 1}: a random permutation of base .. base + n - 1</li>
+ *     <li>{"string": length, "alphabet": "ab"}: a random string of the alphabet</li>
+ *     <li>{"tree": n, "base": 1, "weights": [min, max]}: the n - 1 edges of a random tree, one per line</li>
+ *     <li>{"graph": n, "edges": m, "directed": false, "connected": false, "selfLoops": false, "multiEdges": false,
+ *     "base": 1, "weights": [min, max]}: the m edges of a random graph, one per line</li>
+ * </ul>
+ * An expression is an integer, a variable, or a variable plus, minus or times an integer, like "n-1".
+ *
+ * @author XKTZ
+ * @date 2023-01-08
+ */
+final class Template {
+
+    /**
+     * Expression of a variable and an integer
+     */
+    private static final Pattern EXPRESSION = Pattern.compile("([A-Za-z_]\\w*)\\s*(?:([-+*])\\s*(-?\\d+))?");
+
+    private static final String DEFAULT_ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+
+    /**
+     * Lines of template
+     */
+    private final List<Line> lines;
+
+    /**
+     * Parse a template
+     *
+     * @param template template, as read from the configuration
+     */
+    Template(Object template) {
+        if (!(template instanceof List<?> list)) {
+            throw new TemplateException("Template must be a list of lines");
+        }
+        this.lines = lines(list);
+    }
+
+    /**
+     * Generate a case
+     *
+     * @param random random of case
+     * @return case
+     */
+    String generate(SplittableRandom random) {
+        var out = new StringBuilder();
+        var context = new Context(random, new HashMap<>());
+        for (var line : lines) {
+            line.write(context, out);
+        }
+        return out.toString();
+    }
+
+    private static List<Line> lines(List<?> list) {
+        List<Line> lines = new ArrayList<>();
+        for (var line : list) {
+            lines.add(line(line));
+        }
+        return lines;
+    }
+
+    private static Line line(Object line) {
+        if (line instanceof Map<?, ?> map && map.containsKey("repeat")) {
+            if (!(map.get("lines") instanceof List<?> inner)) {
+                throw new TemplateException("Repeat must have a list of lines");
+            }
+            return new Repeat(expression(map.get("repeat")), lines(inner));
+        }
+        List<Item> items = new ArrayList<>();
+        if (line instanceof List<?> list) {
+            for (var item : list) {
+                items.add(item(item));
+            }
+        } else {
+            items.add(item(line));
+        }
+        return new ItemLine(items);
+    }
+
+    private static Item item(Object item) {
+        if (item instanceof Number || item instanceof String || item instanceof Boolean) {
+            var text = item.toString();
+            return (context, out) -> out.append(text);
+        }
+        if (!(item instanceof Map<?, ?> map)) {
+            throw new TemplateException("Unknown item <%s>".formatted(item));
+        }
+        var base = expression(map.containsKey("base") ? map.get("base") : 1);
+        var weights = map.containsKey("weights") ? bounds(map.get("weights")) : null;
+        if (map.containsKey("int")) {
+            var bounds = bounds(map.get("int"));
+            var name = map.containsKey("name") ? map.get("name").toString() : null;
+            return (context, out) -> {
+                var value = context.between(bounds[0], bounds[1]);
+                if (name != null) {
+                    context.variables().put(name, value);
+                }
+                out.append(value);
+            };
+        } else if (map.containsKey("value")) {
+            var value = expression(map.get("value"));
+            return (context, out) -> out.append(value.evaluate(context));
+        } else if (map.containsKey("range")) {
+            var bounds = bounds(map.get("range"));
+            return (context, out) -> {
+                var to = bounds[1].evaluate(context);
+                for (long i = bounds[0].evaluate(context); i <= to; i++) {
+                    out.append(i).append(i == to ? "" : " ");
+                }
+            };
+        } else if (map.containsKey("array")) {
+            return new ArrayItem(expression(map.get("array")), expression(map.get("min")), expression(map.get("max")),
+                    flag(map, "distinct"), flag(map, "sorted"));
+        } else if (map.containsKey("permutation")) {
+            var n = expression(map.get("permutation"));
+            return (context, out) -> join(out, context.permutation(context.size(n), base.evaluate(context)), " ");
+        } else if (map.containsKey("string")) {
+            var length = expression(map.get("string"));
+            var alphabet = map.containsKey("alphabet") ? map.get("alphabet").toString() : DEFAULT_ALPHABET;
+            if (alphabet.isEmpty()) {
+                throw new TemplateException("Alphabet must not be empty");
+            }
+            return (context, out) -> {
+                var size = context.size(length);
+                for (int i = 0; i < size; i++) {
+                    out.append(alphabet.charAt(context.random().nextInt(alphabet.length())));
+                }
+            };
+        } else if (map.containsKey("tree")) {
+            return new GraphItem(expression(map.get("tree")), null, false, true, false, false, base, weights);
+        } else if (map.containsKey("graph")) {
+            return new GraphItem(expression(map.get("graph")), expression(map.get("edges")), flag(map, "directed"),
+                    flag(map, "connected"), flag(map, "selfLoops"), flag(map, "multiEdges"), base, weights);
+        }
+        throw new TemplateException("Unknown item <%s>".formatted(item));
+    }
+
+    private static boolean flag(Map<?, ?> map, String key) {
+        return Boolean.parseBoolean(String.valueOf(map.get(key)));
+    }
+
+    /**
+     * Bounds [min, max] of an item
+     */
+    private static Expression[] bounds(Object bounds) {
+        if (!(bounds instanceof List<?> list) || list.size() != 2) {
+            throw new TemplateException("Bounds must be [min, max], not <%s>".formatted(bounds));
+        }
+        return new Expression[]{expression(list.get(0)), expression(list.get(1))};
+    }
+
+    private static Expression expression(Object expression) {
+        if (expression instanceof Number number) {
+            var value = number.longValue();
+            return context -> value;
+        }
+        if (expression == null) {
+            throw new TemplateException("Expression is missing");
+        }
+        var text = expression.toString().trim();
+        try {
+            var value = Long.parseLong(text);
+            return context -> value;
+        } catch (NumberFormatException ignored) {
+        }
+        var matcher = EXPRESSION.matcher(text);
+        if (!matcher.matches()) {
+            throw new TemplateException("Unknown expression <%s>".formatted(text));
+        }
+        var name = matcher.group(1);
+        var operator = matcher.group(2) == null ? "+" : matcher.group(2);
+        var operand = matcher.group(3) == null ? 0 : Long.parseLong(matcher.group(3));
+        return context -> {
+            var value = context.variables().get(name);
+            if (value == null) {
+                throw new TemplateException("Unknown variable <%s>".formatted(name));
+            }
+            return switch (operator) {
+                case "-" -> value - operand;
+                case "*" -> value * operand;
+                default -> value + operand;
+            };
+        };
+    }
+
+    private static void join(StringBuilder out, long[] values, String separator) {
+        for (int i = 0; i < values.length; i++) {
+            out.append(values[i]).append(i == values.length - 1 ? "" : separator);
+        }
+    }
+
+    /**
+     * State of a case being generated
+     *
+     * @param random    random of case
+     * @param variables variables
+     */
+    private record Context(SplittableRandom random, Map<String, Long> variables) {
+
+        /**
+         * A random integer in [min, max]
+         */
+        long between(Expression min, Expression max) {
+            return between(min.evaluate(this), max.evaluate(this));
+        }
+
+        long between(long min, long max) {
+            if (min > max) {
+                throw new TemplateException("Empty range [%d, %d]".formatted(min, max));
+            }
+            if (max < Long.MAX_VALUE) {
+                return random.nextLong(min, max + 1);
+            }
+            return min > Long.MIN_VALUE ? random.nextLong(min - 1, max) + 1 : random.nextLong();
+        }
+
+        /**
+         * A size of array, string or graph
+         */
+        int size(Expression expression) {
+            var size = expression.evaluate(this);
+            if (size < 0 || size > Integer.MAX_VALUE - 8) {
+                throw new TemplateException("Size <%d> out of range".formatted(size));
+            }
+            return (int) size;
+        }
+
+        /**
+         * A random permutation of base .. base + n - 1
+         */
+        long[] permutation(int n, long base) {
+            var values = new long[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = base + i;
+            }
+            shuffle(values);
+            return values;
+        }
+
+        void shuffle(long[] values) {
+            for (int i = values.length - 1; i > 0; i--) {
+                var j = random.nextInt(i + 1);
+                var value = values[i];
+                values[i] = values[j];
+                values[j] = value;
+            }
+        }
+    }
+
+    /**
+     * An expression
+     */
+    private interface Expression {
+        long evaluate(Context context);
+    }
+
+    /**
+     * A line of template
+     */
+    private interface Line {
+        void write(Context context, StringBuilder out);
+    }
+
+    /**
+     * An item of line
+     */
+    private interface Item {
+        void write(Context context, StringBuilder out);
+    }
+
+    /**
+     * Items separated by spaces
+     *
+     * @param items items
+     */
+    private record ItemLine(List<Item> items) implements Line {
+        @Override
+        public void write(Context context, StringBuilder out) {
+            for (int i = 0; i < items.size(); i++) {
+                if (i > 0) {
+                    out.append(' ');
+                }
+                items.get(i).write(context, out);
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Lines repeated
+     *
+     * @param count times
+     * @param lines lines
+     */
+    private record Repeat(Expression count, List<Line> lines) implements Line {
+        @Override
+        public void write(Context context, StringBuilder out) {
+            var times = count.evaluate(context);
+            for (long i = 0; i < times; i++) {
+                for (var line : lines) {
+                    line.write(context, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Random integers in [min, max]
+     */
+    private record ArrayItem(Expression length, Expression min, Expression max, boolean distinct,
+                             boolean sorted) implements Item {
+        @Override
+        public void write(Context context, StringBuilder out) {
+            var size = context.size(length);
+            var low = min.evaluate(context);
+            var high = max.evaluate(context);
+            var values = new long[size];
+            if (!distinct) {
+                for (int i = 0; i < size; i++) {
+                    values[i] = context.between(low, high);
+                }
+            } else if (high - low + 1 >= 0 && high - low + 1 < size) {
+                throw new TemplateException("No %d distinct integers in [%d, %d]".formatted(size, low, high));
+            } else if (high - low + 1 >= 0 && high - low + 1 <= 2L * size) {
+                // most of the range is taken, so a part of shuffled range is taken instead of retrying
+                var range = context.permutation((int) (high - low + 1), low);
+                System.arraycopy(range, 0, values, 0, size);
+            } else {
+                Set<Long> taken = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    long value;
+                    do {
+                        value = context.between(low, high);
+                    } while (!taken.add(value));
+                    values[i] = value;
+                }
+            }
+            if (sorted) {
+                Arrays.sort(values);
+            }
+            join(out, values, " ");
+        }
+    }
+
+    /**
+     * Edges of a random graph, one per line, a tree if the number of edges is null
+     */
+    private record GraphItem(Expression vertices, Expression edges, boolean directed, boolean connected,
+                             boolean selfLoops, boolean multiEdges, Expression base,
+                             Expression[] weights) implements Item {
+        @Override
+        public void write(Context context, StringBuilder out) {
+            var n = context.size(vertices);
+            var m = edges == null ? Math.max(0, n - 1) : context.size(edges);
+            var first = base.evaluate(context);
+            long limit = (long) n * (n - 1) / (directed ? 1 : 2) + (selfLoops ? n : 0);
+            // with no edge to choose from, e.g. a single vertex without self loops, even multiple edges are impossible
+            if (limit == 0 && m > 0 || !multiEdges && m > limit) {
+                throw new TemplateException("No graph of %d vertices and %d edges".formatted(n, m));
+            }
+            if (connected && m < n - 1) {
+                throw new TemplateException("No connected graph of %d vertices and %d edges".formatted(n, m));
+            }
+            List<long[]> chosen = new ArrayList<>(m);
+            Set<Long> taken = new HashSet<>();
+            if (connected && n > 0) {
+                // a random tree first: each vertex is attached to one before it, then the vertices are relabeled
+                var label = context.permutation(n, 0);
+                for (int v = 1; v < n; v++) {
+                    var u = context.random().nextInt(v);
+                    var edge = context.random().nextBoolean() || !directed ? new long[]{label[u], label[v]}
+                            : new long[]{label[v], label[u]};
+                    chosen.add(edge);
+                    taken.add(key(edge[0], edge[1], n));
+                }
+            }
+            if (!multiEdges && m - chosen.size() > (limit - chosen.size()) / 2) {
+                // most of the edges are taken, so a part of shuffled edges is taken instead of retrying
+                List<long[]> candidates = new ArrayList<>();
+                for (long u = 0; u < n; u++) {
+                    for (long v = directed ? 0 : u; v < n; v++) {
+                        if ((u != v || selfLoops) && !taken.contains(key(u, v, n))) {
+                            candidates.add(new long[]{u, v});
+                        }
+                    }
+                }
+                Collections.shuffle(candidates, new Random(context.random().nextLong()));
+                chosen.addAll(candidates.subList(0, m - chosen.size()));
+            } else {
+                while (chosen.size() < m) {
+                    long u = context.random().nextInt(n);
+                    long v = context.random().nextInt(n);
+                    if (u == v && !selfLoops || !multiEdges && !taken.add(key(u, v, n))) {
+                        continue;
+                    }
+                    chosen.add(new long[]{u, v});
+                }
+            }
+            Collections.shuffle(chosen, new Random(context.random().nextLong()));
+            for (int i = 0; i < chosen.size(); i++) {
+                var edge = chosen.get(i);
+                var swap = !directed && context.random().nextBoolean();
+                out.append(first + edge[swap ? 1 : 0]).append(' ').append(first + edge[swap ? 0 : 1]);
+                if (weights != null) {
+                    out.append(' ').append(context.between(weights[0], weights[1]));
+                }
+                if (i != chosen.size() - 1) {
+                    out.append('\n');
+                }
+            }
+        }
+
+        /**
+         * Key of an edge, the same for both directions of an undirected edge
+         */
+        private long key(long u, long v, long n) {
+            return !directed && u > v ? v * n + u : u * n + v;
+        }
+    }
+
+    /**
+     * Exception that a template is wrong, or a case could not be generated from it
+     */
+    static class TemplateException extends LanguageRuntime.LanguageConfigurationException {
+        TemplateException(String msg) {
+            super(msg);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package xktz.exam.lang.text;
+
+import xktz.exam.environment.Digests;
+import xktz.exam.environment.Environment;
+import xktz.exam.lang.LanguageRuntime;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Runtime generating the cases in the examiner from a template, without starting any process. See {@link Template}
+ * for the template. Each case is generated by a random split from the random of runtime, so that the same seed gives
+ * the same cases in the same order.
+ *
+ * @author XKTZ
+ * @date 2023-01-08
+ */
+public class TextRuntime extends LanguageRuntime {
+
+    private static final String KEY_TEMPLATE = "template";
+
+    private static final String KEY_SEED = "seed";
+
+    private static final String KEY_TIME_LIMIT = "timeLimit";
+
+    /**
+     * Template
+     */
+    private final Template template;
+
+    /**
+     * Template as in the configuration
+     */
+    private final Object templateConfig;
+
+    /**
+     * Seed of random
+     */
+    private final long seed;
+
+    /**
+     * Random of runtime, each case gets a split of it
+     */
+    private final SplittableRandom random;
+
+    /**
+     * Time limit
+     */
+    private final long timeLimit;
+
+    public TextRuntime(String workDirectory, String projectDirectory,
+                       Environment environment, Map<String, Object> config) {
+        super(workDirectory, projectDirectory, environment, config);
+        templateConfig = config.get(KEY_TEMPLATE);
+        template = new Template(templateConfig);
+        var seedProperty = config.get(KEY_SEED);
+        seed = seedProperty == null ? new SplittableRandom().nextLong() : Long.parseLong(seedProperty.toString());
+        random = new SplittableRandom(seed);
+        timeLimit = Long.parseLong(config.getOrDefault(KEY_TIME_LIMIT, 1000).toString());
+    }
+
+    /**
+     * Nothing to compile, the seed is printed so that the cases could be generated again
+     */
+    @Override
+    public Environment.SystemOutput compile() {
+        outputCommand("Text generator seed: " + seed);
+        return new Environment.SystemOutput(Environment.EXIT_SUCCESS, new byte[0], new byte[0]);
+    }
+
+    /**
+     * Generate a case, the input is not used
+     */
+    @Override
+    public Environment.SystemOutput run(byte[] input, long timeLimit) {
+        SplittableRandom caseRandom;
+        synchronized (random) {
+            caseRandom = random.split();
+        }
+        try {
+            return new Environment.SystemOutput(Environment.EXIT_SUCCESS,
+                    template.generate(caseRandom).getBytes(Environment.SYSTEM_CHARSET), new byte[0]);
+        } catch (Template.TemplateException e) {
+            return new Environment.SystemOutput(1, new byte[0], e.getMessage().getBytes(Environment.SYSTEM_CHARSET));
+        }
+    }
+
+    @Override
+    public Environment.SystemOutput run(InputStream input) {
+        return run(new byte[0]);
+    }
+
+    @Override
+    public CompletableFuture<Environment.SystemOutput> runAsync(byte[] input) {
+        return CompletableFuture.completedFuture(run(input));
+    }
+
+    /**
+     * A finished process whose stdout is the case
+     */
+    @Override
+    public Process start(byte[] input) {
+        return new GeneratedProcess(run(input));
+    }
+
+    @Override
+    public String[] command() {
+        return new String[]{"text"};
+    }
+
+    /**
+     * The cases depend on the template and the seed only
+     */
+    @Override
+    public String fingerprint() {
+        var digest = Digests.sha256();
+        Digests.update(digest, String.valueOf(templateConfig));
+        Digests.update(digest, Long.toString(seed));
+        return Digests.hex(digest);
+    }
+
+    @Override
+    public long timeLimit() {
+        return timeLimit;
+    }
+
+    @Override
+    public void runInherited(byte[] input) {
+        var output = run(input);
+        System.out.write(output.stdout(), 0, output.stdout().length);
+        System.err.write(output.stderr(), 0, output.stderr().length);
+        System.out.flush();
+    }
+
+    /**
+     * Process already finished with an output
+     */
+    private static class GeneratedProcess extends Process {
+
+        private final Environment.SystemOutput output;
+
+        private final InputStream stdout;
+
+        private final InputStream stderr;
+
+        GeneratedProcess(Environment.SystemOutput output) {
+            this.output = output;
+            this.stdout = new ByteArrayInputStream(output.stdout());
+            this.stderr = new ByteArrayInputStream(output.stderr());
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return stdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return stderr;
+        }
+
+        @Override
+        public int waitFor() {
+            return output.exitCode();
+        }
+
+        @Override
+        public int exitValue() {
+            return output.exitCode();
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    /**
+     * Initialize configuration
+     *
+     * @return init config
+     */
+    public static Function<String, Map<String, Object>> initConfiguration() {
+        return (name) -> Map.of(
+                "lang", "text",
+                "template", List.of(List.of(Map.of("int", List.of(1, 10), "name", "n")),
+                        Map.of("array", "n", "min", 1, "max", 100))
+        );
+    }
+}
@@ -0,0 +1,89 @@
+package xktz.exam.log;
+
+import xktz.exam.examine.Examiner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Logger recording everything logged for a single epoch, so that it could be replayed into the real logger later.
+ * Used when epochs are running concurrently, keeping the logs of one epoch together.
+ *
+ * @author XKTZ
+ * @date 2022-12-03
+ */
+public class EpochLogBuffer implements ExamLogger {
+
+    /**
+     * Recorded log actions
+     */
+    private final List<Consumer<ExamLogger>> records = new ArrayList<>();
+
+    @Override
+    public void logStdErrMessage(String process, String error) {
+        records.add(logger -> logger.logStdErrMessage(process, error));
+    }
+
+    @Override
+    public void logStart(int epoch) {
+        records.add(logger -> logger.logStart(epoch));
+    }
+
+    @Override
+    public void logError(int epoch, String error) {
+        records.add(logger -> logger.logError(epoch, error));
+    }
+
+    @Override
+    public void logSkipped(int epoch, String reason) {
+        records.add(logger -> logger.logSkipped(epoch, reason));
+    }
+
+    @Override
+    public void logStatistic(int total, int success, int failed, int error) {
+        records.add(logger -> logger.logStatistic(total, success, failed, error));
+    }
+
+    @Override
+    public void logStageStatistic(String stage, long processed, double averageQueueDepth, int maxQueueDepth,
+                                  double throughput) {
+        records.add(logger -> logger.logStageStatistic(stage, processed, averageQueueDepth, maxQueueDepth, throughput));
+    }
+
+    @Override
+    public void logBuildStatistic(int built, long wallTime) {
+        records.add(logger -> logger.logBuildStatistic(built, wallTime));
+    }
+
+    @Override
+    public void logStartupStatistic(long ready, long firstEpoch) {
+        records.add(logger -> logger.logStartupStatistic(ready, firstEpoch));
+    }
+
+    @Override
+    public void logDuplicateStatistic(long generated, long duplicated, int skipped) {
+        records.add(logger -> logger.logDuplicateStatistic(generated, duplicated, skipped));
+    }
+
+    @Override
+    public void logResult(int epoch, Examiner.ExamineResult result) {
+        records.add(logger -> logger.logResult(epoch, result));
+    }
+
+    /**
+     * Replay all the records into a logger
+     *
+     * @param logger logger
+     */
+    public void replay(ExamLogger logger) {
+        for (var record : records) {
+            record.accept(logger);
+        }
+        records.clear();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -40,6 +40,14 @@ public interface ExamLogger extends AutoCloseable {
      */
     public void logError(int epoch, String error);
 
+    /**
+     * Log an epoch skipped without running the project, not counted as success, failed or error
+     *
+     * @param epoch  epoch
+     * @param reason reason of skipping
+     */
+    public void logSkipped(int epoch, String reason);
+
     /**
      * Log final statistic of running
      *
@@ -50,6 +58,43 @@ public interface ExamLogger extends AutoCloseable {
      */
     public void logStatistic(int total, int success, int failed, int error);
 
+    /**
+     * Log statistic of a pipeline stage
+     *
+     * @param stage             stage name
+     * @param processed         epochs processed
+     * @param averageQueueDepth average depth of queue into the stage
+     * @param maxQueueDepth     max depth of queue into the stage
+     * @param throughput        epochs per second
+     */
+    public void logStageStatistic(String stage, long processed, double averageQueueDepth, int maxQueueDepth,
+                                  double throughput);
+
+    /**
+     * Log statistic of building the codes
+     *
+     * @param built    number of codes built
+     * @param wallTime time from the start of first build to the end of last one, in milliseconds
+     */
+    public void logBuildStatistic(int built, long wallTime);
+
+    /**
+     * Log statistic of duplicate test cases
+     *
+     * @param generated  test cases generated
+     * @param duplicated test cases found generated before
+     * @param skipped    epochs skipped for their duplicate test cases
+     */
+    public void logDuplicateStatistic(long generated, long duplicated, int skipped);
+
+    /**
+     * Log the time taken by the examiner to start
+     *
+     * @param ready      time from the start of JVM to the exam ready to run, in milliseconds
+     * @param firstEpoch time from the start of JVM to the end of first epoch, in milliseconds, -1 if no epoch ran
+     */
+    public void logStartupStatistic(long ready, long firstEpoch);
+
     /**
      * Log the result get epoch
      *
@@ -58,7 +103,13 @@ public interface ExamLogger extends AutoCloseable {
     public void logResult(int epoch, Examiner.ExamineResult result);
 
     public static class LogConfiguration {
-        private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+        /**
+         * Mapper reading the configuration alone. A configuration is created by the mapper of examiner configuration
+         * for every command, so this one is only created once it is needed.
+         */
+        private static final class Mapper {
+            private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+        }
 
         public String dir = "./log";
 
@@ -71,7 +122,7 @@ public interface ExamLogger extends AutoCloseable {
          * @param stream stream
          */
         public static LogConfiguration getConfiguration(InputStream stream) throws IOException {
-            return OBJECT_MAPPER.readValue(stream, LogConfiguration.class);
+            return Mapper.OBJECT_MAPPER.readValue(stream, LogConfiguration.class);
         }
 
     }
@@ -17,18 +17,23 @@ import java.util.function.Function;
  */
 public class ExamLoggerProvider {
 
-    private static Map<String, Function<ExamLogger.LogConfiguration, ExamLogger>> logMap = new ConcurrentHashMap<>();
-
-    static {
-        logMap.put("print", (conf) -> new PrintStreamLogger(
-                ((List<String>) conf.config.getOrDefault("to", List.of("stdout"))).stream()
-                        .map(ExamLoggerProvider::getPrintStream)
-                        .toList()
-        ));
+    /**
+     * Loggers by type, registered when the first logger is created
+     */
+    private static final class Loggers {
+        private static final Map<String, Function<ExamLogger.LogConfiguration, ExamLogger>> logMap = new ConcurrentHashMap<>();
+
+        static {
+            logMap.put("print", (conf) -> new PrintStreamLogger(
+                    ((List<String>) conf.config.getOrDefault("to", List.of("stdout"))).stream()
+                            .map(ExamLoggerProvider::getPrintStream)
+                            .toList()
+            ));
+        }
     }
 
     public static ExamLogger getExamLogger(String workDirectory, ExamLogger.LogConfiguration config) {
-        return logMap.get(config.type).apply(config);
+        return Loggers.logMap.get(config.type).apply(config);
     }
 
     private static ImmutablePair<PrintStream, Boolean> getPrintStream(String s) {
@@ -52,6 +52,16 @@ public class PrintStreamLogger implements ExamLogger {
         }
     }
 
+    @Override
+    public void logSkipped(int epoch, String reason) {
+        var msg = "Epoch %d skipped: %s".formatted(epoch, reason);
+        for (var stream : streams) {
+            stream.getLeft().println(msg);
+            // divider
+            stream.getLeft().println();
+        }
+    }
+
     @Override
     public void logResult(int epoch, Examiner.ExamineResult result) {
         var finishMsg = "Epoch %d %s: %s".formatted(
@@ -83,6 +93,42 @@ public class PrintStreamLogger implements ExamLogger {
         }
     }
 
+    @Override
+    public void logStageStatistic(String stage, long processed, double averageQueueDepth, int maxQueueDepth,
+                                  double throughput) {
+        var msg = "Stage %s: processed %d, queue depth avg %.2f max %d, throughput %.2f/s".formatted(
+                stage, processed, averageQueueDepth, maxQueueDepth, throughput);
+        for (var stream : streams) {
+            stream.getLeft().println(msg);
+        }
+    }
+
+    @Override
+    public void logBuildStatistic(int built, long wallTime) {
+        var msg = "Built %d in %d ms".formatted(built, wallTime);
+        for (var stream : streams) {
+            stream.getLeft().println(msg);
+        }
+    }
+
+    @Override
+    public void logStartupStatistic(long ready, long firstEpoch) {
+        var msg = firstEpoch < 0 ? "Ready in %d ms, no epoch ran".formatted(ready)
+                : "Ready in %d ms, first epoch in %d ms".formatted(ready, firstEpoch);
+        for (var stream : streams) {
+            stream.getLeft().println(msg);
+        }
+    }
+
+    @Override
+    public void logDuplicateStatistic(long generated, long duplicated, int skipped) {
+        var msg = "Duplicate test cases: %d of %d generated (%.2f%%), %d epochs skipped".formatted(
+                duplicated, generated, generated == 0 ? 0.0 : 100.0 * duplicated / generated, skipped);
+        for (var stream : streams) {
+            stream.getLeft().println(msg);
+        }
+    }
+
     @Override
     public void close() throws Exception {
         for (var stream : streams) {
@@ -0,0 +1,52 @@
+package xktz.exam.log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Flush the logs of epochs into a logger in the order of epochs, no matter which epoch finishes first
+ *
+ * @author XKTZ
+ * @date 2022-12-03
+ */
+public class SequencedLogger {
+
+    /**
+     * Logger flushing into
+     */
+    private final ExamLogger logger;
+
+    /**
+     * Finished epochs waiting for previous ones
+     */
+    private final Map<Integer, EpochLogBuffer> pending = new HashMap<>();
+
+    /**
+     * Next epoch to flush
+     */
+    private int next;
+
+    /**
+     * @param logger logger
+     * @param first  first epoch
+     */
+    public SequencedLogger(ExamLogger logger, int first) {
+        this.logger = logger;
+        this.next = first;
+    }
+
+    /**
+     * Complete an epoch. Its logs, together with all following completed epochs, are flushed once all previous
+     * epochs are completed.
+     *
+     * @param epoch  epoch
+     * @param buffer logs of epoch
+     */
+    public synchronized void complete(int epoch, EpochLogBuffer buffer) {
+        pending.put(epoch, buffer);
+        while (pending.containsKey(next)) {
+            pending.remove(next).replay(logger);
+            next++;
+        }
+    }
+}
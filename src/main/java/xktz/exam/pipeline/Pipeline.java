@@ -0,0 +1,85 @@
+package xktz.exam.pipeline;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Pipeline of stages connected by bounded queues, so that every stage works at the same time on different items.
+ *
+ * @author XKTZ
+ * @date 2022-12-05
+ */
+public class Pipeline<T> {
+
+    /**
+     * Stages in order
+     */
+    private final List<PipelineStage<T>> stages = new ArrayList<>();
+
+    /**
+     * Capacity of each queue between two stages
+     */
+    private final int capacity;
+
+    /**
+     * @param capacity capacity of the queues
+     */
+    public Pipeline(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Add a stage at the end of pipeline
+     *
+     * @param name    name
+     * @param workers workers of the stage
+     * @param action  action of the stage
+     * @param failure handler of a failure escaping the action, with the item it failed on
+     * @return this
+     */
+    public Pipeline<T> stage(String name, int workers, Consumer<T> action, BiConsumer<T, Throwable> failure) {
+        var stage = new PipelineStage<>(name, Math.max(1, workers), capacity, action, failure);
+        if (!stages.isEmpty()) {
+            stages.get(stages.size() - 1).next(stage);
+        }
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Run all items from source through the pipeline. Block until every item passed the last stage.
+     *
+     * @param source source of items
+     */
+    public void run(Iterator<T> source) throws InterruptedException {
+        if (stages.isEmpty()) {
+            return;
+        }
+        try {
+            stages.forEach(PipelineStage::start);
+            var first = stages.get(0);
+            while (source.hasNext()) {
+                first.put(source.next());
+            }
+            first.finish();
+            for (var stage : stages) {
+                stage.await();
+            }
+        } catch (InterruptedException e) {
+            stages.forEach(PipelineStage::abort);
+            throw e;
+        }
+    }
+
+    /**
+     * Statistic of all the stages
+     *
+     * @return statistics
+     */
+    public List<PipelineStage.StageStatistic> statistics() {
+        return stages.stream().map(PipelineStage::statistic).toList();
+    }
+}
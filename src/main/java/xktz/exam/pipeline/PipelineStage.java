@@ -0,0 +1,230 @@
+package xktz.exam.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A stage of the pipeline. It has its own workers, taking items from a bounded queue, processing them, and handing
+ * them to the next stage. A worker blocks when the queue of the next stage is full.
+ *
+ * @author XKTZ
+ * @date 2022-12-05
+ */
+public class PipelineStage<T> {
+
+    /**
+     * Name of stage
+     */
+    private final String name;
+
+    /**
+     * Number of workers
+     */
+    private final int workers;
+
+    /**
+     * Action processing an item. It is expected to handle its own failures.
+     */
+    private final Consumer<T> action;
+
+    /**
+     * Handler of a failure escaping the action, with the item it failed on
+     */
+    private final BiConsumer<T, Throwable> failure;
+
+    /**
+     * Queue handing items into this stage
+     */
+    private final BlockingQueue<Token<T>> queue;
+
+    /**
+     * Workers of the stage
+     */
+    private ExecutorService executor;
+
+    /**
+     * Next stage, null if this is the last stage
+     */
+    private PipelineStage<T> next;
+
+    /**
+     * Workers still running
+     */
+    private final AtomicInteger running;
+
+    /**
+     * Items processed
+     */
+    private final AtomicLong processed = new AtomicLong();
+
+    /**
+     * Sum of queue depth sampled at each take, for the average depth
+     */
+    private final AtomicLong depthSum = new AtomicLong();
+
+    /**
+     * Max depth of the queue
+     */
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Time the first item is taken, and the last item finished
+     */
+    private final AtomicLong firstTake = new AtomicLong(Long.MAX_VALUE), lastFinish = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param name     name
+     * @param workers  number of workers
+     * @param capacity capacity of the queue handing items into the stage
+     * @param action   action on item
+     * @param failure  handler of a failure escaping the action
+     */
+    public PipelineStage(String name, int workers, int capacity, Consumer<T> action, BiConsumer<T, Throwable> failure) {
+        this.name = name;
+        this.workers = workers;
+        this.action = action;
+        this.failure = failure;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.running = new AtomicInteger(workers);
+    }
+
+    /**
+     * Set the next stage
+     *
+     * @param next next stage
+     */
+    void next(PipelineStage<T> next) {
+        this.next = next;
+    }
+
+    /**
+     * Start the workers
+     */
+    void start() {
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            var thread = new Thread(runnable);
+            thread.setName("pipeline-" + name + "-" + thread.getId());
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            executor.submit(this::work);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Hand an item into the stage, blocking if the queue is full
+     *
+     * @param item item
+     */
+    void put(T item) throws InterruptedException {
+        queue.put(new Token<>(item));
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    /**
+     * Tell the stage no more items are coming
+     */
+    void finish() throws InterruptedException {
+        for (int i = 0; i < workers; i++) {
+            queue.put(new Token<>(null));
+        }
+    }
+
+    /**
+     * Wait until all the workers of the stage exited
+     */
+    void await() throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // keep waiting for the workers
+        }
+    }
+
+    /**
+     * Stop the workers immediately
+     */
+    void abort() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Work of a worker: process until receiving the end token. The last worker exiting tells the next stage to finish,
+     * even if the worker is interrupted, so that the stages after it are never left waiting.
+     * An item whose action failed is still handed to the next stage, so that it is finished there.
+     */
+    private void work() {
+        try {
+            while (true) {
+                var depth = queue.size();
+                var token = queue.take();
+                if (token.item() == null) {
+                    break;
+                }
+                firstTake.accumulateAndGet(System.nanoTime(), Math::min);
+                depthSum.addAndGet(depth);
+                try {
+                    action.accept(token.item());
+                } catch (Throwable e) {
+                    // the worker must not die with the exception, the item is given to the handler instead
+                    failure.accept(token.item(), e);
+                }
+                processed.incrementAndGet();
+                lastFinish.accumulateAndGet(System.nanoTime(), Math::max);
+                if (next != null) {
+                    next.put(token.item());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0 && next != null) {
+                try {
+                    next.finish();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Statistic of the stage
+     *
+     * @return statistic
+     */
+    public StageStatistic statistic() {
+        var count = processed.get();
+        var seconds = count == 0 ? 0 : (lastFinish.get() - firstTake.get()) / 1e9;
+        return new StageStatistic(name, count,
+                count == 0 ? 0 : (double) depthSum.get() / count,
+                maxDepth.get(),
+                seconds <= 0 ? 0 : count / seconds);
+    }
+
+    /**
+     * Item in queue, a null item means the end
+     */
+    private record Token<T>(T item) {
+    }
+
+    /**
+     * Statistic of a stage
+     *
+     * @param stage        stage name
+     * @param processed    items processed
+     * @param averageDepth average queue depth seen when taking items
+     * @param maxDepth     max queue depth
+     * @param throughput   items processed per second
+     */
+    public record StageStatistic(String stage, long processed, double averageDepth, int maxDepth, double throughput) {
+    }
+}